@@ -56,6 +56,14 @@ public class RachioBindingConstants {
     public static final String PARAM_DEF_RUNTIME = "defaultRuntime";
     public static final String PARAM_CALLBACK_URL = "callbackUrl";
     public static final String PARAM_CLEAR_CALLBACK = "clearAllCallbacks";
+    public static final String PARAM_FULL_REFRESH_INTERVAL = "fullRefreshInterval";
+    public static final String PARAM_IDLE_POLLING_INTERVAL = "idlePollingInterval";
+    public static final String PARAM_CONNECT_TIMEOUT = "connectTimeout";
+    public static final String PARAM_READ_TIMEOUT = "readTimeout";
+    public static final String PARAM_API_URL = "apiUrl";
+    public static final String PARAM_ZONE_START_WINDOW = "zoneStartWindow";
+    public static final String PARAM_EVENT_MODE = "eventMode";
+    public static final String PARAM_CHECKPOINT_INTERVAL = "checkpointInterval";
 
     // List of non-standard Properties
     public static final String PROPERTY_IP_ADDRESS = "ipAddress";
@@ -77,8 +85,35 @@ public class RachioBindingConstants {
 
     // Default for config options / thing settings
     public static int DEFAULT_HTTP_TIMEOUT = 15 * 1000;
+    public static int DEFAULT_HTTP_READ_TIMEOUT = 30 * 1000;
+    public static int DEFAULT_HTTP_MAX_CONNECTIONS = 4;
+    public static int DEFAULT_HTTP_TOTAL_TIMEOUT = 60 * 1000; // deadline for a request including retries
+    public static final int RACHIO_HTTP_MAX_RETRIES = 2; // retries for idempotent GETs
+    public static final int RACHIO_HTTP_RETRY_BASE_MS = 500; // backoff before 1st retry, doubled for each retry
+    public static final int RACHIO_CIRCUIT_FAILURE_THRESHOLD = 5; // consecutive failures opening the circuit
+    public static final int RACHIO_CIRCUIT_OPEN_SEC = 60; // fail fast period of an open circuit
+    public static final int RACHIO_API_QUEUE_SIZE = 50; // max number of pending api calls per queue lane
+    public static final int RACHIO_API_THREAD_IDLE_SEC = 60;
     public static int DEFAULT_POLLING_INTERVAL = 120;
+    public static int DEFAULT_FULL_REFRESH_INTERVAL = 600;
+    public static int DEFAULT_IDLE_POLLING_INTERVAL = 3600; // full refresh while idle and webhooks are healthy
+    public static int DEFAULT_CHECKPOINT_INTERVAL = 6 * 3600; // full refresh in event mode
+    public static final int RACHIO_WEBHOOK_EVENT_TIMEOUT_SEC = 180; // a command should be confirmed by an event
+    public static final int RACHIO_POLLING_PAUSE_MAX_SEC = 6 * 3600; // max time without poll in rain delay/sleep
+    public static final int RACHIO_SCHEDULE_PREARM_SEC = 60; // targeted refreshes start before a scheduled run
+    public static final int RACHIO_REFRESH_MAX_FAILURES = 3; // consecutive failed polls setting the bridge OFFLINE
     public static int DEFAULT_ZONE_RUNTIME = 300;
+    public static int DEFAULT_ZONE_START_WINDOW = 500; // ms to collect zone starts for a device, 0=disabled
+
+    // List of all Bridge Channel ids (read-only api metrics)
+    public static final String CHANNEL_BRIDGE_API_CALLS = "apiCalls";
+    public static final String CHANNEL_BRIDGE_API_ERRORS = "apiErrors";
+    public static final String CHANNEL_BRIDGE_RATE_REMAINING = "rateRemaining";
+    public static final String CHANNEL_BRIDGE_LATENCY_P50 = "latencyP50";
+    public static final String CHANNEL_BRIDGE_LATENCY_P95 = "latencyP95";
+    public static final String CHANNEL_BRIDGE_LATENCY_P99 = "latencyP99";
+    public static final String CHANNEL_BRIDGE_BYTES_RECEIVED = "bytesReceived";
+    public static final String CHANNEL_BRIDGE_API_METRICS = "apiMetrics";
 
     // List of all Device Channel ids
     public static final String CHANNEL_DEVICE_NAME = "name";
@@ -94,6 +129,8 @@ public class RachioBindingConstants {
     public static final String CHANNEL_DEVICE_LONGITUDE = "longitude";
     public static final String CHANNEL_DEVICE_SCHEDULE = "scheduleName";
     public static final String CHANNEL_DEVICE_RAIN_DELAY = "rainDelay";
+    public static final String CHANNEL_DEVICE_NEXT_RUN = "nextRun";
+    public static final String CHANNEL_DEVICE_NEXT_RUN_END = "nextRunEnd";
 
     // List of all Zone Channel ids
     public static final String CHANNEL_ZONE_NAME = "name";
@@ -178,10 +215,14 @@ public class RachioBindingConstants {
     public static final String RACHIO_JSON_RATE_LIMIT = "X-RateLimit-Limit";
     public static final String RACHIO_JSON_RATE_REMAINING = "X-RateLimit-Remaining";
     public static final String RACHIO_JSON_RATE_RESET = "X-RateLimit-Reset";
+    public static final int HTTP_TOO_MANY_REQUESTS = 429; // rate limit exceeded, not defined by HttpURLConnection
     public static final int RACHIO_RATE_LIMIT_WARNING = 200; // slow down polling
     public static final int RACHIO_RATE_LIMIT_CRITICAL = 100; // stop polling
     public static final int RACHIO_RATE_LIMIT_BLOCK = 20; // block api access
     public static final int RACHIO_RATE_SKIP_CALLS = 5;
+    public static final int RACHIO_RATE_BURST = 3; // max number of poll/background calls in a burst
+    public static final int RACHIO_COMMAND_REFRESH_SEC = 300; // targeted refresh after a command was sent
+    public static final int RACHIO_EVENT_REFRESH_SEC = 120; // targeted refresh after a zone event
 
     public static final String AWS_IPADDR_DOWNLOAD_URL = "https://ip-ranges.amazonaws.com/ip-ranges.json";
     public static final String AWS_IPADDR_REGION_FILTER = "us-";
@@ -14,11 +14,15 @@ import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
 import java.net.UnknownHostException;
 import java.text.MessageFormat;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -34,13 +38,30 @@ import org.eclipse.smarthome.core.thing.ThingStatusDetail;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.eclipse.smarthome.core.thing.binding.ThingHandlerService;
 import org.eclipse.smarthome.core.thing.binding.ConfigStatusBridgeHandler;
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.StringType;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
 import org.openhab.binding.rachio.internal.RachioConfiguration;
 import org.openhab.binding.rachio.internal.api.RachioApi;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioRefreshResult;
 import org.openhab.binding.rachio.internal.api.RachioApiException;
+import org.openhab.binding.rachio.internal.api.RachioCircuitBreaker;
 import org.openhab.binding.rachio.internal.api.RachioDevice;
 import org.openhab.binding.rachio.internal.api.RachioEvent;
+import org.openhab.binding.rachio.internal.api.RachioCommand.RachioMultiZoneCommand;
+import org.openhab.binding.rachio.internal.api.RachioCommandQueue.RachioCommandPriority;
+import org.openhab.binding.rachio.internal.api.RachioHttpPool;
+import org.openhab.binding.rachio.internal.api.RachioMetrics;
+import org.openhab.binding.rachio.internal.api.RachioPollingPolicy;
+import org.openhab.binding.rachio.internal.api.RachioPollingPolicy.RachioPollingMode;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter.RachioApiPriority;
+import org.openhab.binding.rachio.internal.api.RachioSnapshotCache;
+import org.openhab.binding.rachio.internal.api.RachioStateChange;
 import org.openhab.binding.rachio.internal.api.RachioZone;
+import org.openhab.binding.rachio.internal.api.RachioZoneStartBatcher;
 import org.openhab.binding.rachio.internal.discovery.RachioDiscoveryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,12 +79,22 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
     private RachioConfiguration thingConfig = new RachioConfiguration();
 
     private final List<RachioStatusListener> rachioStatusListeners = new CopyOnWriteArrayList<>();
+    // status listeners by device or zone id, a refresh notifies only the listeners of the changed things
+    private final Map<String, CopyOnWriteArrayList<RachioStatusListener>> listenersById = new ConcurrentHashMap<>();
+    private final RachioHttpPool httpPool = new RachioHttpPool();
     private final RachioApi rachioApi;
+    private final RachioZoneStartBatcher zoneStartBatcher;
     private String personId = "";
 
+    private final RachioPollingPolicy pollingPolicy = new RachioPollingPolicy();
     private ScheduledFuture<?> pollingJob;
+    private boolean pollingActive = false;
+    private long nextPoll = 0;
+    private RachioPollingMode pollingMode = RachioPollingMode.IDLE;
     private boolean jobPending = false;
-    private int skipCalls = 0;
+    private volatile long lastFullRefresh = 0;
+    private boolean snapshotPending = false; // things run on the snapshot, not yet confirmed by the cloud
+    private int refreshFailures = 0; // consecutive failed polls
 
     /**
      * Thing Handler for the Bridge thing. Handles the cloud connection and links devices+zones to a bridge.
@@ -82,7 +113,8 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      */
     public RachioBridgeHandler(final Bridge bridge) {
         super(bridge);
-        rachioApi = new RachioApi(personId);
+        rachioApi = new RachioApi(personId, httpPool);
+        zoneStartBatcher = new RachioZoneStartBatcher(rachioApi, scheduler);
     }
 
     public void setConfiguration(RachioConfiguration defaultConfig) {
@@ -104,35 +136,53 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
         try {
             thingConfig = bindingConfig;
             thingConfig.updateConfig(getConfig().getProperties());
+            httpPool.setTimeouts(thingConfig.connectTimeout * 1000, thingConfig.readTimeout * 1000);
+            rachioApi.setBaseUrl(thingConfig.apiUrl);
+            zoneStartBatcher.setWindow(thingConfig.zoneStartWindow);
+            pollingPolicy.setIntervals(thingConfig.pollingInterval, thingConfig.fullRefreshInterval,
+                    thingConfig.idlePollingInterval);
+            pollingPolicy.setWebHooksEnabled(!thingConfig.callbackUrl.isEmpty());
+            pollingPolicy.setEventMode(thingConfig.eventMode, thingConfig.checkpointInterval);
+            if (thingConfig.eventMode && thingConfig.callbackUrl.isEmpty()) {
+                logger.warn("RachioBridge: Event mode requires the callbackUrl, using regular polling");
+            }
 
-            logger.debug("RachioBridge: Connecting to Rachio cloud");
-            createCloudConnection(rachioApi);
+            // things come up from the snapshot of the last run, the cloud is read in background
+            rachioApi.setSnapshotCache(RachioSnapshotCache.forBridge(getThing().getUID().getId()));
+            boolean warmStart = !thingConfig.apikey.isEmpty()
+                    && rachioApi.initializeFromSnapshot(thingConfig.apikey, getThing().getUID());
+            if (warmStart) {
+                logger.debug("RachioBridge: Initialized from snapshot, refreshing from Rachio cloud");
+                personId = rachioApi.getPersonId();
+                lastFullRefresh = 0; // next refresh reads the full account
+                snapshotPending = true;
+            } else {
+                logger.debug("RachioBridge: Connecting to Rachio cloud");
+                createCloudConnection(rachioApi);
+                lastFullRefresh = System.currentTimeMillis();
+                snapshotPending = false;
+            }
+            restoreExternalId();
             updateProperties();
+            registerWebHooks();
 
             // Pass BridgeUID to device, RachioDeviceHandler will fill DeviceUID
-            Bridge bridgeThing = this.getThing();
-            HashMap<String, RachioDevice> deviceList = getDevices();
-            for (HashMap.Entry<String, RachioDevice> de : deviceList.entrySet()) {
-                RachioDevice dev = de.getValue();
-                ThingUID devThingUID = new ThingUID(THING_TYPE_DEVICE, bridgeThing.getUID(), dev.getThingID());
-                dev.setUID(this.getThing().getUID(), devThingUID);
-                // Set DeviceUID for all zones
-                HashMap<String, RachioZone> zoneList = dev.getZones();
-                for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
-                    RachioZone zone = ze.getValue();
-                    ThingUID zoneThingUID = new ThingUID(THING_TYPE_ZONE, bridgeThing.getUID(), zone.getThingID());
-                    zone.setUID(dev.getUID(), zoneThingUID);
-                }
-            }
+            setThingUIDs();
 
             logger.info("RachioCloud: Cloud connector initialized.");
             updateStatus(ThingStatus.ONLINE);
+            if (warmStart) {
+                scheduler.execute(pollingRunnable);
+            }
         } catch (RachioApiException e) {
             errorMessage = e.toString();
         } catch (UnknownHostException e) {
             errorMessage = MessageFormat.format("Unknown host '{0}' or Internet connection down", e.getMessage());
         } catch (Throwable e) {
             errorMessage = e.getMessage();
+            if (errorMessage == null) {
+                errorMessage = e.toString();
+            }
         } finally {
             if (!errorMessage.isEmpty()) {
                 logger.warn("RachioBridge: {}", errorMessage);
@@ -147,12 +197,31 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
     }
 
     /**
-     * Handle Thing commands - the bridge doesn't implement any commands
+     * Handle Thing commands - the bridge only has read-only metric channels
      */
     @Override
     public void handleCommand(final ChannelUID channelUID, final Command command) {
-        // cloud handler has no channels
         logger.debug("RachioBridge.handleCommand {} for {}", command.toString(), channelUID.getAsString());
+        if (command == RefreshType.REFRESH) {
+            updateMetricChannels();
+        }
+    }
+
+    /**
+     * Publish the api metrics (calls, errors, latency, rate limit) to the bridge channels
+     */
+    private void updateMetricChannels() {
+        RachioMetrics metrics = rachioApi.getMetrics();
+        updateState(CHANNEL_BRIDGE_API_CALLS, new DecimalType(metrics.getCalls()));
+        updateState(CHANNEL_BRIDGE_API_ERRORS, new DecimalType(metrics.getErrors()));
+        if (metrics.getRateRemaining() >= 0) {
+            updateState(CHANNEL_BRIDGE_RATE_REMAINING, new DecimalType(metrics.getRateRemaining()));
+        }
+        updateState(CHANNEL_BRIDGE_LATENCY_P50, new DecimalType(metrics.getLatencyPercentile(50)));
+        updateState(CHANNEL_BRIDGE_LATENCY_P95, new DecimalType(metrics.getLatencyPercentile(95)));
+        updateState(CHANNEL_BRIDGE_LATENCY_P99, new DecimalType(metrics.getLatencyPercentile(99)));
+        updateState(CHANNEL_BRIDGE_BYTES_RECEIVED, new DecimalType(metrics.getBytesReceived()));
+        updateState(CHANNEL_BRIDGE_API_METRICS, new StringType(metrics.toJson()));
     }
 
     /**
@@ -172,91 +241,195 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
                 jobPending = true;
             }
 
-            HashMap<String, RachioDevice> deviceList = getDevices();
-            if (deviceList == null) {
-                logger.debug("RachioBridgeHandler: Cloud access not initialized yet!");
+            // the remaining daily budget decides if we spend another api call
+            RachioRateLimiter rateLimiter = rachioApi.getRateLimiter();
+            if (!rachioApi.isCallAllowed(RachioApiPriority.COMMAND)) {
+                // even commands are blocked, the budget is reserved until the reset
+                String errorCritical = MessageFormat.format("API access blocked ({0} / {1}), reset at {2}",
+                        rateLimiter.getRemaining(), rateLimiter.getLimit(),
+                        Instant.ofEpochMilli(rateLimiter.getResetTime()));
+                logger.warn("RachioBridge: {}", errorCritical);
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorCritical);
                 return;
             }
-
-            RachioApi checkApi = new RachioApi(personId);
-            createCloudConnection(checkApi);
-            if (checkApi.getLastApiResult().isRateLimitBlocked()) {
-                String errorCritical = "";
-                errorCritical = MessageFormat.format(
-                        "RachioBridge: API access blocked on update ({0} / {1}), reset at {2}",
-                        checkApi.getLastApiResult().rateRemaining, checkApi.getLastApiResult().rateLimit,
-                        checkApi.getLastApiResult().rateReset);
-                logger.warn("{}", errorCritical);
-                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorCritical); // shutdown
-                                                                                                         // bridge+devices+zones
+            RachioCircuitBreaker circuit = rachioApi.getOpenCircuit();
+            if (circuit != null) {
+                // cloud is failing, don't poll until the circuit breaker lets a trial request through
+                String errorOffline = MessageFormat.format("Rachio cloud not available ({0}), retry after {1}",
+                        circuit.getLastError(), Instant.ofEpochMilli(circuit.getOpenUntil()));
+                logger.debug("RachioBridge: {}", errorOffline);
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorOffline);
                 return;
             }
-            if (checkApi.getLastApiResult().isRateLimitWarning()) {
-                skipCalls++;
-                if (skipCalls % RACHIO_RATE_SKIP_CALLS > 0) {
-                    logger.info("RachioBridge: API result is getting critical -> skip update ({} / {})", skipCalls,
-                            RACHIO_RATE_SKIP_CALLS);
-                    return;
+            if (!rachioApi.isCallAllowed(RachioApiPriority.POLL)) {
+                // the governor spreads the remaining budget until the reset time
+                logger.debug("RachioBridge: API call budget for polling exhausted -> skip update ({} / {})",
+                        rateLimiter.getRemaining(), rateLimiter.getLimit());
+                return;
+            }
+
+            RachioRefreshResult changes;
+            long now = System.currentTimeMillis();
+            RachioPollingMode mode = getPollingMode(now);
+            if (pollingPolicy.isFullRefreshDue(mode, lastFullRefresh, now)) {
+                changes = rachioApi.refreshDevices();
+                lastFullRefresh = now;
+                snapshotPending = false;
+                for (RachioDevice dev : getDeviceList()) {
+                    dev.clearResync();
+                }
+            } else {
+                // only refresh devices with running zones, pending commands or events, which couldn't be applied
+                changes = new RachioRefreshResult();
+                int count = 0;
+                for (RachioDevice dev : getDevices().values()) {
+                    if (!pollingPolicy.isRefreshDue(dev, mode)) {
+                        continue;
+                    }
+                    if (!rachioApi.isCallAllowed(RachioApiPriority.POLL)) {
+                        // the remaining devices are still marked and refreshed by the next poll
+                        logger.debug("RachioBridge: API call budget for polling exhausted, {} device(s) refreshed",
+                                count);
+                        break;
+                    }
+                    try {
+                        rachioApi.refreshDevice(dev.id, changes);
+                        dev.clearResync();
+                        count++;
+                    } catch (RachioApiException e) {
+                        // the changes of the devices already refreshed are still dispatched
+                        logger.debug("RachioBridge: Unable to refresh device '{}': {}", dev.id, e.toString());
+                        if (errorMessage.isEmpty()) {
+                            errorMessage = e.toString();
+                        }
+                    }
+                }
+                logger.trace("RachioBridge: {} device(s) refreshed", count);
+            }
+            if (errorMessage.isEmpty()) {
+                refreshFailures = 0;
+                if (this.getThing().getStatus() != ThingStatus.ONLINE) {
+                    logger.debug("RachioBridgeHandler: Bridge is ONLINE");
+                    updateStatus(ThingStatus.ONLINE);
+                }
+            }
+            if (rachioApi.getPendingWebHooks() > 0) {
+                registerWebHooks(); // continue the startup pass, which was stopped by the call budget
+            }
+            for (RachioDevice dev : getDeviceList()) {
+                RachioDeviceHandler handler = dev.getThingHandler();
+                if (handler != null) {
+                    handler.refreshNextRun(); // the predicted run moves on with the time
                 }
             }
-            if (this.getThing().getStatus() != ThingStatus.ONLINE) {
-                logger.debug("RachioBridgeHandler: Bridge is ONLINE");
-                updateStatus(ThingStatus.ONLINE);
+            if (changes.isEmpty()) {
+                logger.trace("RachioBridge: No updates received");
+                return;
             }
 
-            HashMap<String, RachioDevice> checkDevList = checkApi.getDevices();
-            for (HashMap.Entry<String, RachioDevice> de : checkDevList.entrySet()) {
-                RachioDevice checkDev = de.getValue();
-                RachioDevice dev = deviceList.get(checkDev.id);
-                if (dev == null) {
-                    logger.info("RachioBridge: New device detected: '{}' - '{}'", checkDev.id, checkDev.name);
-                } else {
-                    if (!dev.compare(checkDev)) {
-                        logger.trace("RachioBridge: Update data for device '{}'", dev.name);
-                        if (dev.getThingHandler() != null) {
-                            dev.getThingHandler().onThingStateChangedl(checkDev, null);
-                        } else {
-                            rachioStatusListeners.stream().forEach(l -> l.onThingStateChangedl(checkDev, null));
-                        }
-                    } else {
-                        logger.trace("RachioBridge: Device '{}' was not updaterd", checkDev.id);
+            for (RachioDevice dev : changes.newDevices) {
+                logger.info("RachioBridge: New device detected: '{}' - '{}'", dev.id, dev.getThingName());
+                setThingUIDs(dev);
+            }
+            for (RachioDevice dev : changes.removedDevices) {
+                logger.info("RachioBridge: Device '{}' - '{}' was removed from the account", dev.id,
+                        dev.getThingName());
+                notifyThingRemoved(dev.id);
+                for (RachioZone zone : dev.getZones().values()) {
+                    notifyThingRemoved(zone.id);
+                    zone.setUID(null, null);
+                }
+                dev.setUID(null, null);
+            }
+            for (RachioZone zone : changes.removedZones) {
+                logger.info("RachioBridge: Zone '{}' - '{}' was removed from the account", zone.id, zone.getName());
+                notifyThingRemoved(zone.id);
+                zone.setUID(null, null);
+            }
+            for (RachioZone zone : changes.newZones) {
+                logger.debug("RachioBridge: New zone detected: '{}' - '{}'", zone.id, zone.getName());
+            }
+            HashMap<String, RachioDevice> deviceList = getDevices();
+            for (RachioDevice dev : deviceList.values()) {
+                // zones of new devices got their UID above
+                for (RachioZone zone : dev.getZones().values()) {
+                    if (zone.getUID() == null) {
+                        setThingUID(dev, zone);
                     }
+                }
+            }
 
-                    HashMap<String, RachioZone> zoneList = dev.getZones();
-                    HashMap<String, RachioZone> checkZoneList = dev.getZones();
-                    for (HashMap.Entry<String, RachioZone> ze : checkZoneList.entrySet()) {
-                        RachioZone checkZone = ze.getValue();
-                        RachioZone zone = zoneList.get(checkZone.id);
-                        if (zone == null) {
-                            logger.debug("RachioBridge: New zone detected: '{}' - '{}'", checkDev.id, checkZone.name);
-                        } else {
-                            if (!zone.compare(checkZone)) {
-                                logger.trace("RachioBridge: Update data for zone '{}'", zone.name);
-                                if (zone.getThingHandler() != null) {
-                                    zone.getThingHandler().onThingStateChangedl(checkDev, null);
-                                } else {
-                                    rachioStatusListeners.stream().forEach(l -> l.onThingStateChangedl(checkDev, null));
-                                }
-                            } else {
-                                logger.trace("RachioBridge: Zone '{}' was not updated.", checkZone.id);
-                            }
-                        } // elif (zone == null)
-                    } // for each zone
-                } // for each device
-            } // try
+            for (RachioStateChange change : changes.updatedDevices) {
+                RachioDevice dev = change.getDevice();
+                logger.trace("RachioBridge: Update data for device '{}': {}", dev.getThingName(), change);
+                RachioDeviceHandler handler = dev.getThingHandler();
+                if (handler != null) {
+                    handler.onThingStateChanged(change);
+                } else {
+                    notifyStatusListeners(dev.id, change);
+                }
+            }
+            for (RachioStateChange change : changes.updatedZones) {
+                RachioZone zone = change.getZone();
+                logger.trace("RachioBridge: Update data for zone '{}': {}", zone.getName(), change);
+                RachioZoneHandler handler = zone.getThingHandler();
+                if (handler != null) {
+                    handler.onThingStateChanged(change);
+                } else {
+                    notifyStatusListeners(zone.id, change);
+                }
+            }
         } catch (RachioApiException e) {
             errorMessage = e.toString();
+            if (snapshotPending && e.getApiResult().isRejected()) {
+                // the cloud rejects the account of the snapshot, e.g. the apikey was revoked
+                logger.warn("RachioBridge: Rachio cloud rejected the account, snapshot discarded: {}", errorMessage);
+                rachioApi.deleteSnapshot();
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR, errorMessage);
+                errorMessage = "";
+            }
         } catch (Throwable e) {
             errorMessage = e.getMessage();
+            if (errorMessage == null) {
+                errorMessage = e.toString();
+            }
         } finally {
             if (!errorMessage.isEmpty()) {
                 logger.warn("RachioBridge: {}", errorMessage);
-                // updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorMessage);
+                if (++refreshFailures >= RACHIO_REFRESH_MAX_FAILURES) {
+                    updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorMessage);
+                }
             }
+            updateMetricChannels();
             jobPending = false;
         }
     } // refreshDeviceStatus()
 
+    /**
+     * Build the ThingUIDs for all devices and zones, which are used to map things to the internal data structure
+     */
+    private void setThingUIDs() {
+        HashMap<String, RachioDevice> deviceList = getDevices();
+        for (HashMap.Entry<String, RachioDevice> de : deviceList.entrySet()) {
+            setThingUIDs(de.getValue());
+        }
+    }
+
+    private void setThingUIDs(RachioDevice dev) {
+        ThingUID devThingUID = new ThingUID(THING_TYPE_DEVICE, getThing().getUID(), dev.getThingID());
+        dev.setUID(getThing().getUID(), devThingUID);
+        // Set DeviceUID for all zones
+        Map<String, RachioZone> zoneList = dev.getZones();
+        for (Map.Entry<String, RachioZone> ze : zoneList.entrySet()) {
+            setThingUID(dev, ze.getValue());
+        }
+    }
+
+    private void setThingUID(RachioDevice dev, RachioZone zone) {
+        ThingUID zoneThingUID = new ThingUID(THING_TYPE_ZONE, getThing().getUID(), zone.getThingID());
+        zone.setUID(dev.getUID(), zoneThingUID);
+    }
+
     public void shutdown() {
         logger.info("RachioBridge: Shutting down");
         updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.BRIDGE_OFFLINE);
@@ -282,31 +455,34 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      * puts the device into standby mode = disable watering, schedules etc.
      *
      * @param deviceId: Device (ID retrieved from initialization)
-     * @return true: successful, failed (check http error code)
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void disableDevice(String deviceId) throws RachioApiException {
-        rachioApi.disableDevice(deviceId);
+    public CompletableFuture<RachioApiResult> disableDevice(String deviceId) {
+        requestRefresh(deviceId);
+        return rachioApi.disableDeviceAsync(deviceId);
     }
 
     /**
      * puts the device into run mode = watering, schedules etc.
      *
      * @param deviceId: Device (ID retrieved from initialization)
-     * @return true: successful, failed (check http error code)
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void enableDevice(String deviceId) throws RachioApiException {
-        rachioApi.enableDevice(deviceId);
+    public CompletableFuture<RachioApiResult> enableDevice(String deviceId) {
+        requestRefresh(deviceId);
+        return rachioApi.enableDeviceAsync(deviceId);
     }
 
     /**
      * Stop watering for all zones, disable schedule etc. - puts the device into standby mode
      *
      * @param deviceId: Device (ID retrieved from initialization)
-     * @return true: successful, failed (check http error code)
-     * @return
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void stopWatering(String deviceId) throws RachioApiException {
-        rachioApi.stopWatering(deviceId);
+    public CompletableFuture<RachioApiResult> stopWatering(String deviceId) {
+        requestRefresh(deviceId);
+        zoneStartBatcher.cancel(deviceId); // don't start zones switched on right before STOP
+        return rachioApi.stopWateringAsync(deviceId);
     }
 
     /**
@@ -314,31 +490,63 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      *
      * @param deviceId: Device (ID retrieved from initialization)
      * @param delayTime: Number of seconds for rain delay sycle
-     * @return true: successful, failed (check http error code)
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void startRainDelay(String deviceId, int delayTime) throws RachioApiException {
-        rachioApi.rainDelay(deviceId, delayTime);
+    public CompletableFuture<RachioApiResult> startRainDelay(String deviceId, int delayTime) {
+        requestRefresh(deviceId);
+        return rachioApi.rainDelayAsync(deviceId, delayTime);
     }
 
     /**
      * Start watering for multiple zones.
      *
-     * @param zoneListJson: Contains a list of { "id": n} with the zone ids to start
-     * @return true: successful, failed (check http error code)
+     * @param deviceId: Device owning the zones
+     * @param zoneList: Zones to start and their run time
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void runMultipleZones(String zoneListJson) throws RachioApiException {
-        rachioApi.runMultilpeZones(zoneListJson);
+    public CompletableFuture<RachioApiResult> runMultipleZones(String deviceId, RachioMultiZoneCommand zoneList) {
+        requestRefresh(deviceId);
+        return rachioApi.runMultipleZonesAsync(deviceId, zoneList);
     }
 
     /**
-     * Start a single zone for given number of seconds.
+     * Start a single zone for given number of seconds. Zone starts of the same device within the configured window
+     * are merged into one multi-zone run.
      *
      * @param zoneId: Rachio Cloud Zone ID
      * @param runTime: Number of seconds to run
-     * @return true: successful, failed (check http error code)
+     * @return future completing with the api result or exceptionally with a RachioApiException
      */
-    public void startZone(String zoneId, int runTime) throws RachioApiException {
-        rachioApi.runZone(zoneId, runTime);
+    public CompletableFuture<RachioApiResult> startZone(String zoneId, int runTime) {
+        String deviceId = null;
+        RachioDevice dev = rachioApi.getRegistry().getZoneOwner(zoneId);
+        if (dev != null) {
+            dev.requestRefresh(runTime + RACHIO_COMMAND_REFRESH_SEC);
+            deviceId = dev.id;
+        }
+        commandSent();
+        return zoneStartBatcher.startZone(deviceId, zoneId, runTime);
+    }
+
+    /**
+     * Include the device in the targeted refresh for the next polling cycles
+     *
+     * @param deviceId Device which received a command
+     */
+    private void requestRefresh(String deviceId) {
+        RachioDevice dev = getDevices().get(deviceId);
+        if (dev != null) {
+            dev.requestRefresh(RACHIO_COMMAND_REFRESH_SEC);
+        }
+        commandSent();
+    }
+
+    /**
+     * Switch to fast polling after a command, the command should also be confirmed by a webhook event
+     */
+    private void commandSent() {
+        pollingPolicy.onCommand();
+        scheduleNextPoll(false);
     }
 
     //
@@ -438,13 +646,44 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      * zones events.
      *
      * @param deviceId: Matching device ID (as retrieved from device initialization)
-     * @return trtue: successful, false: failed (check http error code)
+     * @return future completing with the api result (null if no callbackUrl is configured)
      */
-    public void registerWebHook(String deviceId) throws RachioApiException {
+    public CompletableFuture<RachioApiResult> registerWebHook(String deviceId) {
         if (getCallbackUrl().equals("")) {
             logger.trace("RachioApi: No callbackUrl configured.");
+            return CompletableFuture.completedFuture(null);
+        }
+        return rachioApi.registerWebHookAsync(deviceId, getCallbackUrl(), getExternalId(), getClearAllCallbacks());
+    }
+
+    /**
+     * Register the webhooks of all devices in one background pass at startup. Webhooks still registered from the last
+     * run are kept, so device initialization and restarts don't cause webhook churn.
+     */
+    private void registerWebHooks() {
+        if (getCallbackUrl().equals("")) {
+            return;
+        }
+        rachioApi.registerWebHooksAsync(getCallbackUrl(), getExternalId(), getClearAllCallbacks())
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        logger.warn("RachioBridge: Unable to register webhooks: {}", e.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Re-use the externalId of the last run (stored as thing property) as long as the apikey didn't change. Otherwise
+     * the registered webhooks wouldn't match and events of the old registration would be rejected.
+     */
+    private void restoreExternalId() {
+        Map<String, String> properties = getThing().getProperties();
+        String externalId = properties.get(PROPERTY_EXT_ID);
+        if ((externalId != null) && !externalId.isEmpty()
+                && thingConfig.apikey.equals(properties.get(PROPERTY_APIKEY))) {
+            rachioApi.setExternalId(externalId);
         } else {
-            rachioApi.registerWebHook(deviceId, getCallbackUrl(), getExternalId(), getClearAllCallbacks());
+            rachioApi.setExternalId("");
         }
     }
 
@@ -456,18 +695,33 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      */
     public boolean webHookEvent(RachioEvent event) {
         try {
-            HashMap<String, RachioDevice> deviceList = getDevices();
-            for (HashMap.Entry<String, RachioDevice> de : deviceList.entrySet()) {
-                RachioDevice dev = de.getValue();
-                if (dev.id.equalsIgnoreCase(event.deviceId) && (dev.getThingHandler() != null)) {
-                    return dev.getThingHandler().webhookEvent(event);
+            pollingPolicy.onEvent();
+            RachioDevice dev = rachioApi.getRegistry().getDevice(event.deviceId);
+            if ((dev != null) && RachioPollingPolicy.isPaused(dev, System.currentTimeMillis())) {
+                // e.g. sleep mode or rain delay ended, polling resumes with the refresh
+                dev.requestRefresh(RACHIO_EVENT_REFRESH_SEC);
+            }
+            if ((dev != null) && (dev.getThingHandler() != null)) {
+                boolean processed = dev.getThingHandler().webhookEvent(event);
+                if (!processed) {
+                    dev.requestResync(); // the device state might be out of sync now
                 }
+                scheduleNextPoll(false); // a zone event requests a refresh of the device
+                return processed;
             }
             logger.debug("RachioEvent {}.{} for unknown device '{}': {}", event.category, event.type, event.deviceId,
                     event.summary);
+            if (dev == null) {
+                lastFullRefresh = 0; // e.g. a new device was added to the account, read it with the next poll
+                scheduleNextPoll(false);
+            }
         } catch (Throwable e) {
             logger.warn("RachioEvent: Unable to process event {}.{} for device '{}': {}", event.category, event.type,
                     event.deviceId, e.getMessage());
+            RachioDevice dev = rachioApi.getRegistry().getDevice(event.deviceId);
+            if (dev != null) {
+                dev.requestResync();
+            }
         }
         return false;
     }
@@ -481,26 +735,81 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
      * listeners to notify.
      */
     private synchronized void updateListenerManagement() {
-        if (!rachioStatusListeners.isEmpty() && (pollingJob == null || pollingJob.isCancelled())) {
-            pollingJob = scheduler.scheduleWithFixedDelay(pollingRunnable, getPollingInterval(), getPollingInterval(),
-                    TimeUnit.SECONDS);
-        } else if (rachioStatusListeners.isEmpty() && pollingJob != null && !pollingJob.isCancelled()) {
+        if (!rachioStatusListeners.isEmpty() && !pollingActive) {
+            pollingActive = true;
+            scheduleNextPoll(true);
+        } else if (rachioStatusListeners.isEmpty() && pollingActive) {
+            stopPolling();
+        }
+    }
+
+    /**
+     * Schedule the next poll as decided by the polling policy
+     *
+     * @param reschedule true: replace the scheduled poll, false: only move it to an earlier time (command, event)
+     */
+    private synchronized void scheduleNextPoll(boolean reschedule) {
+        if (!pollingActive) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RachioPollingMode mode = getPollingMode(now);
+        long next = pollingPolicy.getNextPoll(mode, getDeviceList(), lastFullRefresh, now);
+        if (!reschedule && (pollingJob != null) && !pollingJob.isDone() && (nextPoll <= next)) {
+            return;
+        }
+        if (mode != pollingMode) {
+            logger.debug("RachioBridge: Polling mode {} -> {}", pollingMode, mode);
+            pollingMode = mode;
+        }
+        if (pollingJob != null) {
+            pollingJob.cancel(false);
+        }
+        nextPoll = next;
+        pollingJob = scheduler.schedule(pollingRunnable, next - now, TimeUnit.MILLISECONDS);
+        logger.trace("RachioBridge: Next poll in {} sec ({})", (next - now) / 1000, mode);
+    }
+
+    private synchronized void stopPolling() {
+        pollingActive = false;
+        if (pollingJob != null) {
             pollingJob.cancel(true);
             pollingJob = null;
         }
     }
 
+    private RachioPollingMode getPollingMode(long now) {
+        Collection<RachioDevice> devices = getDeviceList();
+        boolean webHookHealthy = pollingPolicy.isWebHookHealthy(rachioApi.getPendingWebHooks(), now);
+        pollingPolicy.armScheduledRuns(devices, webHookHealthy, now);
+        return pollingPolicy.getMode(devices, webHookHealthy, now);
+    }
+
+    private Collection<RachioDevice> getDeviceList() {
+        HashMap<String, RachioDevice> devices = getDevices();
+        return devices != null ? devices.values() : Collections.emptyList();
+    }
+
     /**
-     * Register the given listener to receive device status updates.
+     * Register the given listener to receive the status updates of a device or zone.
      *
+     * @param id the device or zone id the listener is interested in
      * @param listener the listener to register
      */
-    public void registerStatusListener(final RachioStatusListener listener) {
-        if (listener == null) {
+    public void registerStatusListener(final String id, final RachioStatusListener listener) {
+        if ((id == null) || (listener == null)) {
             return;
         }
 
-        rachioStatusListeners.add(listener);
+        CopyOnWriteArrayList<RachioStatusListener> listeners = listenersById.get(id);
+        if (listeners == null) {
+            listenersById.putIfAbsent(id, new CopyOnWriteArrayList<>());
+            listeners = listenersById.get(id);
+        }
+        listeners.addIfAbsent(listener);
+        if (!rachioStatusListeners.contains(listener)) {
+            rachioStatusListeners.add(listener);
+        }
         updateListenerManagement();
     }
 
@@ -514,12 +823,47 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
     public boolean unregisterStatusListener(final RachioStatusListener listener) {
         boolean result = rachioStatusListeners.remove(listener);
         if (result) {
+            for (Map.Entry<String, CopyOnWriteArrayList<RachioStatusListener>> entry : listenersById.entrySet()) {
+                List<RachioStatusListener> listeners = entry.getValue();
+                if (listeners.remove(listener) && listeners.isEmpty()) {
+                    listenersById.remove(entry.getKey(), listeners);
+                }
+            }
             updateListenerManagement();
         }
 
         return result;
     }
 
+    /**
+     * Deliver a change to the listeners registered for the device or zone id
+     *
+     * @param id device or zone id
+     * @param change the change to deliver
+     */
+    private void notifyStatusListeners(String id, RachioStateChange change) {
+        List<RachioStatusListener> listeners = listenersById.get(id);
+        if (listeners != null) {
+            for (RachioStatusListener listener : listeners) {
+                listener.onThingStateChanged(change);
+            }
+        }
+    }
+
+    /**
+     * Tell the listeners of a device or zone, which was deleted in the cloud, and drop their registration
+     *
+     * @param id device or zone id
+     */
+    private void notifyThingRemoved(String id) {
+        List<RachioStatusListener> listeners = listenersById.remove(id);
+        if (listeners != null) {
+            for (RachioStatusListener listener : listeners) {
+                listener.onThingRemoved();
+            }
+        }
+    }
+
     @Override
     public Collection<ConfigStatusMessage> getConfigStatus() {
         Collection<ConfigStatusMessage> configStatusMessages = new ArrayList<>();
@@ -555,18 +899,30 @@ public class RachioBridgeHandler extends ConfigStatusBridgeHandler {
     private Runnable pollingRunnable = new Runnable() {
         @Override
         public void run() {
-            refreshDeviceStatus();
+            // polls are queued behind user commands, a pending poll is replaced by the next one
+            rachioApi.submit(RachioCommandPriority.REFRESH, null, "refresh", () -> {
+                refreshDeviceStatus();
+                return rachioApi.getLastApiResult();
+            }).whenComplete((result, e) -> scheduleNextPoll(true));
         }
     };
 
+    @Override
+    public void handleRemoval() {
+        RachioSnapshotCache cache = RachioSnapshotCache.forBridge(getThing().getUID().getId());
+        if (cache != null) {
+            cache.delete();
+        }
+        super.handleRemoval();
+    }
+
     @Override
     public synchronized void dispose() {
         logger.debug("RachioBridgeHandler: Disposing Rachio cloud handler");
 
-        if (pollingJob != null && !pollingJob.isCancelled()) {
-            pollingJob.cancel(true);
-            pollingJob = null;
-        }
+        stopPolling();
+        zoneStartBatcher.shutdown();
+        rachioApi.dispose();
     }
 
 } // class RachioBridgeHandler
@@ -10,11 +10,17 @@
  */
 package org.openhab.binding.rachio.handler;
 
-import java.util.HashMap;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.core.library.types.DateTimeType;
 import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.library.types.StringType;
@@ -29,10 +35,15 @@ import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.core.types.State;
+import org.eclipse.smarthome.core.types.UnDefType;
 import org.openhab.binding.rachio.RachioBindingConstants;
-import org.openhab.binding.rachio.internal.api.RachioApiException;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
 import org.openhab.binding.rachio.internal.api.RachioDevice;
+import org.openhab.binding.rachio.internal.api.RachioDeviceState;
 import org.openhab.binding.rachio.internal.api.RachioEvent;
+import org.openhab.binding.rachio.internal.api.RachioScheduleTimeline.RachioRunWindow;
+import org.openhab.binding.rachio.internal.api.RachioStateChange;
+import org.openhab.binding.rachio.internal.api.RachioStateChange.RachioDeviceField;
 import org.openhab.binding.rachio.internal.api.RachioZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +65,7 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
     RachioBridgeHandler cloudHandler;
     @Nullable
     RachioDevice dev;
-    private Map<String, State> channelData = new HashMap<>();
+    private Map<String, State> channelData = new ConcurrentHashMap<>();
 
     public RachioDeviceHandler(Thing thing) {
         super(thing);
@@ -77,8 +88,13 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
                     dev = cloudHandler.getDevByUID(this.getThing().getUID());
                     if (dev != null) {
                         dev.setThingHandler(this);
-                        cloudHandler.registerStatusListener(this);
-                        cloudHandler.registerWebHook(dev.id);
+                        cloudHandler.registerStatusListener(dev.id, this);
+                        cloudHandler.registerWebHook(dev.id).whenComplete((result, e) -> {
+                            if (e != null) {
+                                logger.warn("RachioDevice: Unable to register webhook: {}",
+                                        RachioApiResult.getErrorMessage(e));
+                            }
+                        });
                         if (bridge.getStatus() != ThingStatus.ONLINE) {
                             logger.debug("Rachio: Bridge is offline!");
                             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.BRIDGE_OFFLINE);
@@ -93,8 +109,6 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
                 }
             }
             errorMessage = "Initialisation failed";
-        } catch (RachioApiException e) {
-            errorMessage = e.toString();
         } catch (Throwable e) {
             if (e.getMessage() != null) {
                 errorMessage = e.getMessage();
@@ -125,11 +139,13 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
             } else if (channel.equals(RachioBindingConstants.CHANNEL_DEVICE_ACTIVE)) {
                 if (command instanceof OnOffType) {
                     if (command == OnOffType.OFF) {
-                        logger.info("RachioDevice: Pause device '{}' (disable watering, schedules etc.)", dev.name);
-                        cloudHandler.disableDevice(dev.id);
+                        logger.info("RachioDevice: Pause device '{}' (disable watering, schedules etc.)",
+                                dev.getThingName());
+                        handleApiResult(cloudHandler.disableDevice(dev.id));
                     } else {
-                        logger.info("RachioDevice: Resume device '{}' (enable watering, schedules etc.)", dev.name);
-                        cloudHandler.enableDevice(dev.id);
+                        logger.info("RachioDevice: Resume device '{}' (enable watering, schedules etc.)",
+                                dev.getThingName());
+                        handleApiResult(cloudHandler.enableDevice(dev.id));
                     }
                 } else {
                     logger.debug("RachioDevice: command value is no OnOffType: {}", command);
@@ -152,27 +168,29 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
             } else if (channel.equals(RachioBindingConstants.CHANNEL_DEVICE_RUN)) {
                 if (command == OnOffType.ON) {
                     logger.info("RachioDevice: START watering zones '{}' ('' = ALL)", dev.getRunZones());
-                    cloudHandler.runMultipleZones(dev.getAllRunZonesJson(cloudHandler.getDefaultRuntime()));
+                    handleApiResult(cloudHandler.runMultipleZones(dev.id,
+                            dev.getRunZonesCommand(cloudHandler.getDefaultRuntime())));
                 }
             } else if (channel.equals(RachioBindingConstants.CHANNEL_DEVICE_STOP)) {
                 if (command == OnOffType.ON) {
-                    logger.info("RachioDevice: STOP watering for device '{}'", dev.name);
-                    cloudHandler.stopWatering(dev.id);
+                    logger.info("RachioDevice: STOP watering for device '{}'", dev.getThingName());
+                    handleApiResult(cloudHandler.stopWatering(dev.id));
                     updateState(RachioBindingConstants.CHANNEL_DEVICE_STOP, OnOffType.OFF);
                 }
             } else if (channel.equals(RachioBindingConstants.CHANNEL_DEVICE_RAIN_DELAY)) {
                 if (command instanceof DecimalType) {
                     logger.info("RachioDevice: Start rain delay cycle for {} sec", command.toString());
                     dev.setRainDelayTime(((DecimalType) command).intValue());
-                    cloudHandler.startRainDelay(dev.id, ((DecimalType) command).intValue());
+                    handleApiResult(cloudHandler.startRainDelay(dev.id, ((DecimalType) command).intValue()));
                 } else {
                     logger.debug("RachioDevice: command value is no DecimalType: {}", command);
                 }
             }
-        } catch (RachioApiException e) {
-            errorMessage = e.toString();
         } catch (Throwable e) {
             errorMessage = e.getMessage();
+            if (errorMessage == null) {
+                errorMessage = e.toString();
+            }
         } finally {
             if (!errorMessage.isEmpty()) {
                 logger.warn("RachioDevice.handleCommand: {}", errorMessage);
@@ -181,25 +199,97 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
         }
     } // handleCommand()
 
+    /**
+     * Api calls are executed asynchronously, errors are reported when the call completes.
+     *
+     * @param future Pending api call
+     */
+    private void handleApiResult(CompletableFuture<RachioApiResult> future) {
+        future.whenComplete((result, e) -> {
+            if (e instanceof CancellationException) {
+                logger.debug("RachioDevice: Command superseded by a newer one");
+            } else if (e != null) {
+                String errorMessage = RachioApiResult.getErrorMessage(e);
+                logger.warn("RachioDevice.handleCommand: {}", errorMessage);
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorMessage);
+            }
+        });
+    }
+
     
     private void postChannelData() {
         if (dev != null) {
+            postChannelData(RachioStateChange.all(dev, null));
+        }
+    }
+
+    /**
+     * Update the channels backed by the changed fields
+     *
+     * @param change Changed fields of the device
+     */
+    private void postChannelData(RachioStateChange change) {
+        if (dev != null) {
+            RachioDeviceState state = dev.getState();
             logger.debug("RachioDevice: Updating  status");
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_NAME, new StringType(dev.getThingName()));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_ONLINE, dev.getOnline());
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_ACTIVE, dev.getEnabled());
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_PAUSED, dev.getSleepMode());
+            if (change.contains(RachioDeviceField.NAME)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_NAME, new StringType(state.getName()));
+            }
+            if (change.contains(RachioDeviceField.STATUS)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_ONLINE, dev.getOnline());
+            }
+            if (change.contains(RachioDeviceField.ON)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_ACTIVE, dev.getEnabled());
+            }
+            if (change.contains(RachioDeviceField.PAUSED)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_PAUSED, dev.getSleepMode());
+            }
             updateChannel(RachioBindingConstants.CHANNEL_DEVICE_STOP, OnOffType.OFF);
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RUN_ZONES, new StringType(dev.getRunZones()));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RUN_TIME, new DecimalType(dev.getRunTime()));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RAIN_DELAY, new DecimalType(dev.rainDelay));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_EVENT, new StringType(dev.getEvent()));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_LATITUDE, new DecimalType(dev.longitude));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_LONGITUDE, new DecimalType(dev.latitude));
-            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_SCHEDULE, new StringType(dev.scheduleName));
+            if (change.contains(RachioDeviceField.RUN_ZONES)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RUN_ZONES, new StringType(state.getRunList()));
+            }
+            if (change.contains(RachioDeviceField.RUN_TIME)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RUN_TIME, new DecimalType(state.getRunTime()));
+            }
+            if (change.contains(RachioDeviceField.RAIN_DELAY)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_RAIN_DELAY,
+                        new DecimalType(state.getRainDelay()));
+            }
+            if (change.contains(RachioDeviceField.EVENT)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_EVENT, new StringType(state.getLastEvent()));
+            }
+            if (change.contains(RachioDeviceField.LONGITUDE)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_LATITUDE, new DecimalType(state.getLongitude()));
+            }
+            if (change.contains(RachioDeviceField.LATITUDE)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_LONGITUDE, new DecimalType(state.getLatitude()));
+            }
+            if (change.contains(RachioDeviceField.SCHEDULE_NAME)) {
+                updateChannel(RachioBindingConstants.CHANNEL_DEVICE_SCHEDULE,
+                        new StringType(state.getScheduleName()));
+            }
+            refreshNextRun();
         }
     }
 
+    /**
+     * Update the predicted start and end of the next scheduled run, called on each poll as the window moves on with
+     * the time
+     */
+    public void refreshNextRun() {
+        if (dev != null) {
+            RachioRunWindow window = dev.getNextRunWindow(System.currentTimeMillis());
+            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_NEXT_RUN,
+                    window != null ? toDateTime(window.start) : UnDefType.UNDEF);
+            updateChannel(RachioBindingConstants.CHANNEL_DEVICE_NEXT_RUN_END,
+                    window != null ? toDateTime(window.end) : UnDefType.UNDEF);
+        }
+    }
+
+    private static State toDateTime(long time) {
+        return new DateTimeType(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+    }
+
     @SuppressWarnings({ "null", "unused" })
     private boolean updateChannel(String channelName, State newValue) {
         State currentValue = channelData.get(channelName);
@@ -223,11 +313,15 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
 
     
     @Override
-    public boolean onThingStateChangedl(@Nullable RachioDevice updatedDev, @Nullable RachioZone updatedZone) {
-        if ((updatedDev != null) && (dev != null) && dev.id.equals(updatedDev.id)) {
-            logger.debug("RachioDevice: Update for device '{}' received.", dev.id);
-            dev.update(updatedDev);
-            postChannelData();
+    public boolean onThingStateChanged(RachioStateChange change) {
+        if ((change.getZone() == null) && (dev != null) && dev.id.equals(change.getDevice().id)) {
+            logger.debug("RachioDevice: Update for device '{}' received: {}", dev.id, change);
+            postChannelData(change);
+            if (change.contains(RachioDeviceField.NAME) || change.contains(RachioDeviceField.MODEL)
+                    || change.contains(RachioDeviceField.SERIAL_NUMBER) || change.contains(RachioDeviceField.NETWORK)) {
+                updateProperties();
+            }
+            // also recovers the thing after a failed command, the cloud status might not have changed
             updateStatus(dev.getStatus());
             return true;
         }
@@ -235,12 +329,32 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
     }
 
     
+    @Override
+    public void onThingRemoved() {
+        RachioDevice dev = this.dev;
+        if (dev == null) {
+            return;
+        }
+        logger.info("RachioDevice: Device '{}' was removed from the Rachio account", dev.id);
+        if (cloudHandler != null) {
+            cloudHandler.unregisterStatusListener(this);
+        }
+        if (dev.getThingHandler() == this) {
+            dev.setThingHandler(null);
+        }
+        this.dev = null; // commands would address a device, which no longer exists
+        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.GONE, "Device was removed from the Rachio account");
+    }
+
     @Override
     public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
         super.bridgeStatusChanged(bridgeStatusInfo);
 
         logger.debug("RachioDeviceHandler: Bridge Status changed to {}", bridgeStatusInfo.getStatus());
         if (bridgeStatusInfo.getStatus() == ThingStatus.ONLINE) {
+            if (dev == null) {
+                return; // removed from the account
+            }
             updateProperties();
             postChannelData();
             updateStatus(dev.getStatus());
@@ -250,10 +364,23 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
     } // bridgeStatusChanged()
 
     public void shutdown() {
-        dev.setStatus("OFFLINE");
+        if (dev != null) {
+            dev.setStatus("OFFLINE");
+        }
         updateStatus(ThingStatus.OFFLINE);
     }
 
+    @Override
+    public void dispose() {
+        if (cloudHandler != null) {
+            cloudHandler.unregisterStatusListener(this);
+        }
+        if ((dev != null) && (dev.getThingHandler() == this)) {
+            dev.setThingHandler(null);
+        }
+        super.dispose();
+    }
+
     
     public boolean webhookEvent(RachioEvent event) {
         boolean update = true; // 1=event processed, 2=processed + force refresh, 0=unhandled event
@@ -266,54 +393,61 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
                 if ((zone != null) && (zone.getThingHandler() != null)) {
                     return zone.getThingHandler().webhookEvent(event);
                 }
+                update = zone != null; // unknown zone, the device needs to be refreshed
             } else if (event.subType.equals("ZONE_DELTA")) {
                 RachioZone zone = dev.getZoneById(event.zoneId);
                 if ((zone != null) && (zone.getThingHandler() != null)) {
                     return zone.getThingHandler().webhookEvent(event);
                 }
+                update = zone != null;
             } else if (etype.equals("DEVICE_STATUS")) {
                 // sub types:
                 // COLD_REBOOT, ONLINE, OFFLINE, OFFLINE_NOTIFICATION, SLEEP_MODE_ON, SLEEP_MODE_OFF, BROWNOUT_VALVE
                 // RAIN_SENSOR_DETECTION_ON, RAIN_SENSOR_DETECTION_OFF, RAIN_DELAY_ON, RAIN_DELAY_OFF
-                logger.info("Rachio device {} ('{}') changed to status '{}'.", dev.name, dev.id, event.subType);
+                logger.info("Rachio device {} ('{}') changed to status '{}'.", dev.getThingName(), dev.id,
+                        event.subType);
                 if (event.subType.equals("COLD_REBOOT")) {
-                    logger.info("Rachio device {} (id '{}') was restarted, ip={}/{}, gw={}, dns={}/{}, wifi rssi={}.",
-                            dev.name, dev.id, dev.network.ip, dev.network.nm, dev.network.gw, dev.network.dns1,
-                            dev.network.dns2, dev.network.rssi);
+                    logger.info("Rachio device {} (id '{}') was restarted, {}.", dev.getThingName(), dev.id,
+                            dev.getNetworkInfo());
                     dev.setNetwork(event.network);
                 } else if (event.subType.equals("ONLINE")) {
-                    logger.info("Rachio device {} ('{}') is now ONLINE.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') is now ONLINE.", dev.getThingName(), dev.id);
                     dev.setStatus(event.subType);
                 } else if (event.subType.equals("OFFLINE") || event.subType.equals("OFFLINE_NOTIFICATION")) {
-                    logger.info("Rachio device {} ('{}') is now OFFLINE (subType = '{}').", dev.name, dev.id,
+                    logger.info("Rachio device {} ('{}') is now OFFLINE (subType = '{}').", dev.getThingName(), dev.id,
                             event.subType);
                     dev.setStatus(event.subType);
                 } else if (event.subType.equals("SLEEP_MODE_ON")) {
-                    logger.info("Rachio device {} ('{}') is now in sleep mode.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') is now in sleep mode.", dev.getThingName(), dev.id);
                     dev.setSleepMode(event.subType);
                 } else if (event.subType.equals("SLEEP_MODE_OFF")) {
-                    logger.info("Rachio device {} ('{}') was resumed (exit from sleep mode).", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') was resumed (exit from sleep mode).", dev.getThingName(),
+                            dev.id);
                     dev.setSleepMode(event.subType);
                 } else if (event.subType.equals("RAIN_DELAY_ON")) {
-                    logger.info("Rachio device {} ('{}') reporterd a rain delay ON.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') reporterd a rain delay ON.", dev.getThingName(), dev.id);
                     update = false; // details missing
                 } else if (event.subType.equals("RAIN_DELAY_OFF")) {
-                    logger.info("Rachio device {} ('{}') reporterd a rain delay OFF.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') reporterd a rain delay OFF.", dev.getThingName(), dev.id);
                     update = false; // details missing
                 } else if (event.subType.equals("RAIN_SENSOR_DETECTION_ON")) {
-                    logger.info("Rachio device {} ('{}') reporterd a rain sensor ON.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') reporterd a rain sensor ON.", dev.getThingName(), dev.id);
                     update = false; // details missing
                 } else if (event.subType.equals("RAIN_SENSOR_DETECTION_ON")) {
-                    logger.info("Rachio device {} ('{}') reporterd a rain sensor OFF.", dev.name, dev.id);
+                    logger.info("Rachio device {} ('{}') reporterd a rain sensor OFF.", dev.getThingName(), dev.id);
                     update = false; // details missing
                 } else {
                     update = false; // details missing
                 }
             } else if (event.type.equals("SCHEDULE_STATUS")) {
                 logger.info("RachioDevice '{}' for device '{}', schedule='{}': {} (start={}, end={}, duration={}min)",
-                        event.subType, dev.name, event.scheduleName, event.summary, event.startTime, event.endTime,
-                        event.durationInMinutes);
-                // no action -> just post event message to OH
+                        event.subType, dev.getThingName(), event.scheduleName, event.summary, event.startTime,
+                        event.endTime, event.durationInMinutes);
+                if (event.subType.equals("SCHEDULE_STARTED")) {
+                    dev.setScheduleName(event.scheduleName);
+                } else if (event.subType.equals("SCHEDULE_STOPPED") || event.subType.equals("SCHEDULE_COMPLETED")) {
+                    dev.setScheduleName("");
+                }
             } else {
                 update = false; // unknown event
             }
@@ -323,7 +457,7 @@ public class RachioDeviceHandler extends BaseThingHandler implements RachioStatu
                 return true;
             }
             logger.debug("RachioDevice: Unhandled event '{}.{}' for device '{}' ({}): {}", event.type, event.subType,
-                    dev.name, dev.id, event.summary);
+                    dev.getThingName(), dev.id, event.summary);
             return false;
         } catch (Throwable e) {
             logger.warn("RachioDevice: Unable to process '{}.{}' - {}: {}", event.type, event.subType, event.summary,
@@ -12,9 +12,7 @@
  */
 package org.openhab.binding.rachio.handler;
 
-import org.eclipse.jdt.annotation.Nullable;
-import org.openhab.binding.rachio.internal.api.RachioDevice;
-import org.openhab.binding.rachio.internal.api.RachioZone;
+import org.openhab.binding.rachio.internal.api.RachioStateChange;
 
 /**
  * The {@link RachioStatusListener} is notified when a chamber is updated.
@@ -25,9 +23,13 @@ public interface RachioStatusListener {
     /**
      * This method will be called whenever a new device/zone status is received by the cloud handler.
      *
-     * @param updatedDev On device updates this is the new RachioDevice information, maybe null!!
-     * @param supdatedZone On zone updates this is the new RachioZone information, maybe null!!
+     * @param change Updated device or zone (getZone() != null) and the fields, which have changed
+     * @return true: the change belongs to this thing
      */
+    public boolean onThingStateChanged(RachioStateChange change);
 
-    public boolean onThingStateChangedl(@Nullable RachioDevice updatedDev, @Nullable RachioZone updatedZone);
+    /**
+     * This method will be called when the device/zone was deleted in the cloud, the thing is no longer backed by data.
+     */
+    public void onThingRemoved();
 }
@@ -14,8 +14,10 @@ package org.openhab.binding.rachio.handler;
 
 import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -34,10 +36,13 @@ import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.rachio.RachioBindingConstants;
-import org.openhab.binding.rachio.internal.api.RachioApiException;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
 import org.openhab.binding.rachio.internal.api.RachioDevice;
 import org.openhab.binding.rachio.internal.api.RachioEvent;
+import org.openhab.binding.rachio.internal.api.RachioStateChange;
+import org.openhab.binding.rachio.internal.api.RachioStateChange.RachioZoneField;
 import org.openhab.binding.rachio.internal.api.RachioZone;
+import org.openhab.binding.rachio.internal.api.RachioZoneState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,7 +64,7 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
     private RachioDevice dev;
     @Nullable
     private RachioZone zone;
-    private Map<String, State> channelData = new HashMap<>();
+    private Map<String, State> channelData = new ConcurrentHashMap<>();
 
     public RachioZoneHandler(Thing thing) {
         super(thing);
@@ -88,7 +93,7 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
                 logger.debug("RachioZone: Thing initialisation failed!");
             } else {
                 // listen to bridge events
-                cloudHandler.registerStatusListener(this);
+                cloudHandler.registerStatusListener(zone.id, this);
                 if (bridge.getStatus() != ThingStatus.ONLINE) {
                     logger.debug("Rachio: Bridge is offline!");
                     updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.BRIDGE_OFFLINE);
@@ -135,16 +140,16 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
                 if (command instanceof OnOffType) {
                     if (command == OnOffType.ON) {
                         int runtime = zone.getStartRunTime();
-                        logger.info("RachioZone: Starting zone '{} [{}]' for {} secs", zone.name, zone.zoneNumber,
-                                runtime);
+                        logger.info("RachioZone: Starting zone '{} [{}]' for {} secs", zone.getName(),
+                                zone.getZoneNumber(), runtime);
                         if (runtime == 0) {
                             runtime = cloudHandler.getDefaultRuntime();
                             logger.debug("RachioZone: No specific runtime selected, using default ({} secs);", runtime);
                         }
-                        cloudHandler.startZone(zone.id, runtime);
+                        handleApiResult(cloudHandler.startZone(zone.id, runtime));
                     } else {
                         logger.info("RachioZone: Stop watering for the device");
-                        cloudHandler.stopWatering(dev.id);
+                        handleApiResult(cloudHandler.stopWatering(dev.id));
                     }
                 } else {
                     logger.debug("RachioZone: command value for {} is no OnOffType: {}", channel, command);
@@ -158,8 +163,6 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
                     logger.debug("RachioZone: command value is no DecimalType: {}", command);
                 }
             }
-        } catch (RachioApiException e) {
-            errorMessage = e.toString();
         } catch (Throwable e) {
             errorMessage = e.getMessage();
             if (errorMessage == null) {
@@ -173,13 +176,32 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
         }
     } // handleCommand()
 
+    /**
+     * Api calls are executed asynchronously, errors are reported when the call completes.
+     *
+     * @param future Pending api call
+     */
+    private void handleApiResult(CompletableFuture<RachioApiResult> future) {
+        future.whenComplete((result, e) -> {
+            if (e instanceof CancellationException) {
+                logger.debug("RachioZoneHandler: Command superseded by a newer one");
+            } else if (e != null) {
+                String errorMessage = RachioApiResult.getErrorMessage(e);
+                logger.warn("RachioZoneHandler: {}", errorMessage);
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorMessage);
+            }
+        });
+    }
+
     
     @Override
-    public boolean onThingStateChangedl(@Nullable RachioDevice updatedDev, @Nullable RachioZone updatedZone) {
-        if ((updatedZone != null) && (zone != null) && zone.id.equals(updatedZone.id)) {
-            logger.debug("RachioZone: Update for zone '{}' received.", zone.id);
-            zone.update(updatedZone);
-            postChannelData();
+    public boolean onThingStateChanged(RachioStateChange change) {
+        if ((change.getZone() != null) && (zone != null) && zone.id.equals(change.getZone().id)) {
+            logger.debug("RachioZone: Update for zone '{}' received: {}", zone.id, change);
+            postChannelData(change);
+            if (change.contains(RachioZoneField.NAME)) {
+                updateProperties();
+            }
             updateStatus(dev.getStatus());
             return true;
         }
@@ -196,22 +218,26 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
             String zoneName = event.zoneName;
             if (event.type.equals("ZONE_STATUS")) {
                 if (event.zoneRunStatus.state.equals("STARTED")) {
-                    logger.info("RachioZone[{}]: '{}' STARTED watering ({}).", zone.zoneNumber, zoneName,
+                    logger.info("RachioZone[{}]: '{}' STARTED watering ({}).", zone.getZoneNumber(), zoneName,
                             event.timestamp);
+                    Integer duration = event.zoneRunStatus.duration;
+                    dev.requestRefresh((duration != null ? duration : 0) + RACHIO_EVENT_REFRESH_SEC);
                     updateState(RachioBindingConstants.CHANNEL_ZONE_RUN, OnOffType.ON);
                 } else if (event.subType.equals("ZONE_STOPPED") || event.subType.equals("ZONE_COMPLETED")) {
                     logger.info(
                             "RachioZone[{}]: '{}' STOPPED watering (timestamp={}, current={}, duration={}sec/{}min, flowVolume={}).",
-                            zone.zoneNumber, zoneName, event.timestamp, event.zoneCurrent, event.duration,
+                            zone.getZoneNumber(), zoneName, event.timestamp, event.zoneCurrent, event.duration,
                             event.durationInMinutes, event.flowVolume);
                     updateState(RachioBindingConstants.CHANNEL_ZONE_RUN, OnOffType.OFF);
+                    dev.requestRefresh(RACHIO_EVENT_REFRESH_SEC);
                 } else {
                     logger.info("RachioZone: Event for zone[{}] '{}': {} (status={}, duration = {}sec)",
-                            zone.zoneNumber, event.zoneName, event.summary, event.zoneRunStatus.state, event.duration);
+                            zone.getZoneNumber(), event.zoneName, event.summary, event.zoneRunStatus.state,
+                            event.duration);
                 }
                 update = true;
             } else if (event.subType.equals("ZONE_DELTA")) {
-                logger.info("RachioZone: DELTA Event for zone#{} '{}': {}.{}", zone.zoneNumber, zone.name,
+                logger.info("RachioZone: DELTA Event for zone#{} '{}': {}.{}", zone.getZoneNumber(), zone.getName(),
                         event.category, event.action);
                 update = true;
             } else {
@@ -233,13 +259,37 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
     
     public void postChannelData() {
         if (zone != null) {
-            updateChannel(CHANNEL_ZONE_NAME, new StringType(zone.name));
-            updateChannel(CHANNEL_ZONE_NUMBER, new DecimalType(zone.zoneNumber));
-            updateChannel(CHANNEL_ZONE_ENABLED, zone.getEnabled());
+            postChannelData(RachioStateChange.all(dev, zone));
+        }
+    }
+
+    /**
+     * Update the channels backed by the changed fields
+     *
+     * @param change Changed fields of the zone
+     */
+    private void postChannelData(RachioStateChange change) {
+        if (zone != null) {
+            RachioZoneState state = zone.getState();
+            if (change.contains(RachioZoneField.NAME)) {
+                updateChannel(CHANNEL_ZONE_NAME, new StringType(state.getName()));
+            }
+            if (change.contains(RachioZoneField.ZONE_NUMBER)) {
+                updateChannel(CHANNEL_ZONE_NUMBER, new DecimalType(state.getZoneNumber()));
+            }
+            if (change.contains(RachioZoneField.ENABLED)) {
+                updateChannel(CHANNEL_ZONE_ENABLED, zone.getEnabled());
+            }
             updateChannel(CHANNEL_ZONE_RUN, OnOffType.OFF);
-            updateChannel(CHANNEL_ZONE_RUN_TIME, new DecimalType(zone.getStartRunTime()));
-            updateChannel(CHANNEL_ZONE_RUN_TOTAL, new DecimalType(zone.runtime));
-            updateChannel(CHANNEL_ZONE_IMAGEURL, new StringType(zone.imageUrl));
+            if (change.contains(RachioZoneField.START_RUN_TIME)) {
+                updateChannel(CHANNEL_ZONE_RUN_TIME, new DecimalType(state.getStartRunTime()));
+            }
+            if (change.contains(RachioZoneField.RUNTIME)) {
+                updateChannel(CHANNEL_ZONE_RUN_TOTAL, new DecimalType(state.getRuntime()));
+            }
+            if (change.contains(RachioZoneField.IMAGE_URL)) {
+                updateChannel(CHANNEL_ZONE_IMAGEURL, new StringType(state.getImageUrl()));
+            }
             // updateChannel(RachioBindingConstants.CHANNEL_ZONE_EVENT, new StringType(zone.getEvent()));
             // updateChannel(CHANNEL_ZONE_AVL_WATER, new DecimalType(zone.availableWater));
             // updateChannel(CHANNEL_ZONE_ROOT_DEPTH, new DecimalType(zone.rootZoneDepth));
@@ -278,12 +328,33 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
     }
 
     
+    @Override
+    public void onThingRemoved() {
+        RachioZone zone = this.zone;
+        if (zone == null) {
+            return;
+        }
+        logger.info("RachioZone: Zone '{}' was removed from the Rachio account", zone.id);
+        if (cloudHandler != null) {
+            cloudHandler.unregisterStatusListener(this);
+        }
+        if (zone.getThingHandler() == this) {
+            zone.setThingHandler(null);
+        }
+        this.zone = null; // commands would address a zone, which no longer exists
+        dev = null;
+        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.GONE, "Zone was removed from the Rachio account");
+    }
+
     @Override
     public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
         super.bridgeStatusChanged(bridgeStatusInfo);
 
         logger.trace("RachioZoneHandler: Bridge Status changed to {}", bridgeStatusInfo.getStatus());
         if (bridgeStatusInfo.getStatus() == ThingStatus.ONLINE) {
+            if ((zone == null) || (dev == null)) {
+                return; // removed from the account
+            }
             updateProperties();
             updateStatus(dev.getStatus());
             postChannelData();
@@ -296,6 +367,17 @@ public class RachioZoneHandler extends BaseThingHandler implements RachioStatusL
         updateStatus(ThingStatus.OFFLINE);
     }
 
+    @Override
+    public void dispose() {
+        if (cloudHandler != null) {
+            cloudHandler.unregisterStatusListener(this);
+        }
+        if ((zone != null) && (zone.getThingHandler() == this)) {
+            zone.setThingHandler(null);
+        }
+        super.dispose();
+    }
+
     
     private void updateProperties() {
         if ((cloudHandler != null) && (zone != null)) {
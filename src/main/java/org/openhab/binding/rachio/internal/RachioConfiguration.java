@@ -34,9 +34,17 @@ public class RachioConfiguration {
 
     public String apikey = "";
     public int pollingInterval = DEFAULT_POLLING_INTERVAL;
+    public int fullRefreshInterval = DEFAULT_FULL_REFRESH_INTERVAL;
+    public int idlePollingInterval = DEFAULT_IDLE_POLLING_INTERVAL;
     public int defaultRuntime = DEFAULT_ZONE_RUNTIME;
     public String callbackUrl = "";
     public Boolean clearAllCallbacks = false;
+    public int connectTimeout = DEFAULT_HTTP_TIMEOUT / 1000;
+    public int readTimeout = DEFAULT_HTTP_READ_TIMEOUT / 1000;
+    public String apiUrl = APIURL_BASE;
+    public int zoneStartWindow = DEFAULT_ZONE_START_WINDOW;
+    public Boolean eventMode = false;
+    public int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
 
     public void updateConfig(Map<String, Object> config) {
         for (HashMap.Entry<String, Object> ce : config.entrySet()) {
@@ -55,6 +63,10 @@ public class RachioConfiguration {
                 apikey = value;
             } else if (key.equalsIgnoreCase(PARAM_POLLING_INTERVAL)) {
                 this.pollingInterval = Integer.parseInt(value);
+            } else if (key.equalsIgnoreCase(PARAM_FULL_REFRESH_INTERVAL)) {
+                this.fullRefreshInterval = Integer.parseInt(value);
+            } else if (key.equalsIgnoreCase(PARAM_IDLE_POLLING_INTERVAL)) {
+                this.idlePollingInterval = Integer.parseInt(value);
             } else if (key.equalsIgnoreCase(PARAM_DEF_RUNTIME)) {
                 this.defaultRuntime = Integer.parseInt(value);
             } else if (key.equalsIgnoreCase(PARAM_CALLBACK_URL)) {
@@ -62,6 +74,18 @@ public class RachioConfiguration {
             } else if (key.equalsIgnoreCase(PARAM_CLEAR_CALLBACK)) {
                 String str = value;
                 this.clearAllCallbacks = str.toLowerCase().equals("true");
+            } else if (key.equalsIgnoreCase(PARAM_CONNECT_TIMEOUT)) {
+                this.connectTimeout = Integer.parseInt(value);
+            } else if (key.equalsIgnoreCase(PARAM_READ_TIMEOUT)) {
+                this.readTimeout = Integer.parseInt(value);
+            } else if (key.equalsIgnoreCase(PARAM_API_URL)) {
+                this.apiUrl = value;
+            } else if (key.equalsIgnoreCase(PARAM_ZONE_START_WINDOW)) {
+                this.zoneStartWindow = Integer.parseInt(value);
+            } else if (key.equalsIgnoreCase(PARAM_EVENT_MODE)) {
+                this.eventMode = value.toLowerCase().equals("true");
+            } else if (key.equalsIgnoreCase(PARAM_CHECKPOINT_INTERVAL)) {
+                this.checkpointInterval = Integer.parseInt(value);
             }
         }
     } // RachioBindingConfiguration
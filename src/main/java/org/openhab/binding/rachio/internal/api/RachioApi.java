@@ -12,21 +12,30 @@ package org.openhab.binding.rachio.internal.api;
 
 import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
-import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.openhab.binding.rachio.RachioBindingConstants;
+import org.openhab.binding.rachio.internal.api.RachioCommand.RachioMultiZoneCommand;
+import org.openhab.binding.rachio.internal.api.RachioCommandQueue.RachioApiCall;
+import org.openhab.binding.rachio.internal.api.RachioCommandQueue.RachioCommandPriority;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter.RachioApiPriority;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
 /**
  * The {@link RachioApi} implements the interface to the Rachio cloud service (using http).
@@ -47,12 +56,23 @@ public class RachioApi {
         public String apikey = "";
         public Integer responseCode = 0;
         public String resultString = "";
+        public Object resultObject = null; // decoded JSON response, see RachioHttp.httpGet(..., resultType)
 
         public Integer apiCalls = 0;
         public Integer rateLimit = 0;
         public Integer rateRemaining = 0;
         public String rateReset = "";
 
+        /**
+         * Get the decoded JSON response
+         *
+         * @param type Expected class
+         * @return decoded object or null if the response was not decoded to the given type
+         */
+        public <T> T getResultObject(Class<T> type) {
+            return type.isInstance(resultObject) ? type.cast(resultObject) : null;
+        }
+
         public void setRateLimit(int rateLimit, int rateRemaining, String rateReset) {
             this.rateLimit = rateLimit;
             this.rateRemaining = rateRemaining;
@@ -102,9 +122,51 @@ public class RachioApi {
         public boolean isRateLimitBlocked() {
             return (rateRemaining > 0) && (rateRemaining <= RACHIO_RATE_LIMIT_BLOCK);
         }
+
+        /**
+         * Get the message of a failed api call, which is shown as thing status
+         *
+         * @param e Exception of the api call, the cause of a CompletionException is reported
+         * @return error message
+         */
+        public static String getErrorMessage(Throwable e) {
+            Throwable cause = (e instanceof CompletionException) && (e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof RachioApiException) {
+                return cause.toString();
+            }
+            return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        }
+
+        /**
+         * @return true: the cloud rejected the request (http 4xx except the rate limit), a retry doesn't help
+         */
+        public boolean isRejected() {
+            return (responseCode != null) && (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST)
+                    && (responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                    && (responseCode != HTTP_TOO_MANY_REQUESTS);
+        }
+    }
+
+    /**
+     * Changes detected by refreshDevices(). Devices and zones are the (patched) objects of the api's device list,
+     * updates report the changed fields.
+     */
+    public static class RachioRefreshResult {
+        public final List<RachioDevice> newDevices = new ArrayList<>();
+        public final List<RachioStateChange> updatedDevices = new ArrayList<>();
+        public final List<RachioDevice> removedDevices = new ArrayList<>();
+        public final List<RachioZone> newZones = new ArrayList<>();
+        public final List<RachioStateChange> updatedZones = new ArrayList<>();
+        public final List<RachioZone> removedZones = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return newDevices.isEmpty() && updatedDevices.isEmpty() && removedDevices.isEmpty() && newZones.isEmpty()
+                    && updatedZones.isEmpty() && removedZones.isEmpty();
+        }
     }
 
     protected String apikey = "";
+    protected String baseUrl = APIURL_BASE;
     protected String personId = "";
     protected String userName = "";
     protected String fullName = "";
@@ -113,14 +175,20 @@ public class RachioApi {
     protected RachioApiResult lastApiResult = new RachioApiResult();
     protected static final Integer externalIdSalt = (int) (Math.random() * 50 + 1);
 
-    private HashMap<String, RachioDevice> deviceList = new HashMap<String, RachioDevice>();
+    private volatile HashMap<String, RachioDevice> deviceList = new HashMap<String, RachioDevice>();
+    private volatile RachioDeviceRegistry registry = RachioDeviceRegistry.EMPTY;
     private RachioHttp httpApi = null;
+    private final RachioHttpPool httpPool;
+    private final RachioCommandQueue commandQueue = new RachioCommandQueue();
+    private final RachioWebHookReconciler webHooks = new RachioWebHookReconciler(this);
+    private volatile RachioSnapshotCache snapshotCache = null;
+    private volatile String externalId = "";
 
-    class RachioCloudPersonId {
+    static class RachioCloudPersonId {
         String id = ""; // "id":"xxxxxxx-xxxx-xxxx-xxxx-xxxxxxxx"
     }
 
-    class RachioCloudStatus {
+    static class RachioCloudStatus {
         long createDate = -1; // "createDate":1494626927000,
         String id = ""; // "id":"xxxxxxx-xxxx-xxxx-xxxx-xxxxxxxx",
         String username = ""; // "username":"markus7017",
@@ -130,18 +198,27 @@ public class RachioApi {
         boolean deleted = false; // "deleted":false
     } // class RachioCloudStatus
 
-    public class RachioApiWebHookEntry {
+    public static class RachioApiWebHookEventType {
+        public String id = "";
+        public String name = "";
+    }
+
+    public static class RachioApiWebHookEntry {
         public long createDate = -1;
         public long lastUpdateDate = -1;
         public String id = "";
         public String url = "";
         public String externalId = "";
+        public ArrayList<RachioApiWebHookEventType> eventTypes = new ArrayList<>();
     }
 
-    public class RachioApiWebHookList {
-        public ArrayList<RachioApiWebHookEntry> webhooks = new ArrayList<>();
+    private static final Type WEBHOOK_LIST_TYPE = new TypeToken<ArrayList<RachioApiWebHookEntry>>() {
+    }.getType();
 
-    }
+    // events delivered to the binding's webhook
+    private static final String[] WEBHOOK_EVENT_TYPES = { WHE_DEVICE_STATUS, WHE_RAIN_DELAY, WEATHER_INTELLIGENCE,
+            WHE_WATER_BUDGET, WHE_ZONE_DELTA, WHE_SCHEDULE_STATUS, WHE_ZONE_STATUS, WHE_RAIN_SENSOR_DETECTION,
+            WHE_DELTA };
 
     public class RachioCloudDelta {
         // V3: ZONE_DELTA / SCHEDULE_DELTA
@@ -159,7 +236,61 @@ public class RachioApi {
     }
 
     public RachioApi(String personId) {
+        this(personId, new RachioHttpPool());
+    }
+
+    /**
+     * Create an api instance, which uses the given connection pool. All instances of a bridge share the same pool so
+     * connections to the Rachio cloud are re-used.
+     *
+     * @param personId Cached personId or "" to query it on initialize()
+     * @param httpPool Shared connection pool
+     */
+    public RachioApi(String personId, RachioHttpPool httpPool) {
         this.personId = personId;
+        this.httpPool = httpPool;
+    }
+
+    /**
+     * Check the api call budget without consuming it
+     *
+     * @param priority Call priority
+     * @return true: a call with this priority would be allowed
+     */
+    public boolean isCallAllowed(RachioApiPriority priority) {
+        return RachioRateLimiter.getInstance(apikey).canAcquire(priority);
+    }
+
+    /**
+     * @return api call budget of the account
+     */
+    public RachioRateLimiter getRateLimiter() {
+        return RachioRateLimiter.getInstance(apikey);
+    }
+
+    /**
+     * Get the state of the endpoints read by the poll (person and device GET) without sending a request. A failing
+     * endpoint used by background work (e.g. webhook registration) doesn't stop the polling.
+     *
+     * @return an open circuit breaker if a polled endpoint is failing, null if it is reachable
+     */
+    public RachioCircuitBreaker getOpenCircuit() {
+        List<URL> locations = new ArrayList<>();
+        HashMap<String, RachioDevice> devices = deviceList;
+        try {
+            locations.add(new URL(baseUrl + APIURL_GET_PERSONID + "/" + personId));
+            if (!devices.isEmpty()) {
+                // all devices share the endpoint
+                locations.add(new URL(baseUrl + APIURL_GET_DEVICE + "/" + devices.keySet().iterator().next()));
+            }
+        } catch (MalformedURLException e) {
+            return null; // no request could be sent either
+        }
+        return RachioCircuitBreaker.getOpenCircuit(apikey, locations.toArray(new URL[locations.size()]));
+    }
+
+    public RachioMetrics getMetrics() {
+        return RachioMetrics.getInstance(apikey);
     }
 
     public RachioApiResult getLastApiResult() {
@@ -175,14 +306,44 @@ public class RachioApi {
     }
 
     public String getExternalId() {
+        if (!externalId.isEmpty()) {
+            return externalId;
+        }
         // return a salted ash of the apikey
         String hash = "OH_" + getMD5Hash(apikey) + "_" + externalIdSalt.toString();
         return getMD5Hash(hash);
     }
 
+    /**
+     * Use the externalId of a previous run, so webhooks registered by it remain valid after a restart
+     *
+     * @param externalId externalId as returned by getExternalId(), "" to use a new one
+     */
+    public void setExternalId(String externalId) {
+        this.externalId = externalId != null ? externalId : "";
+    }
+
+    /**
+     * Set the base URL of the cloud api, e.g. to connect to a local simulator (see RachioCloudSimulator in the test sources)
+     *
+     * @param url Base URL including the api version path, null or empty: use the Rachio cloud
+     */
+    public void setBaseUrl(String url) {
+        if ((url == null) || url.isEmpty()) {
+            baseUrl = APIURL_BASE;
+        } else {
+            baseUrl = url.endsWith("/") ? url : url + "/";
+        }
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
     public boolean initialize(String apikey, ThingUID bridgeUID) throws RachioApiException {
         this.apikey = apikey;
-        httpApi = new RachioHttp(this.apikey);
+        httpApi = new RachioHttp(this.apikey, httpPool);
+        webHooks.invalidate();
         if (initializePersonId() && initializeDevices(bridgeUID) && initializeZones()) {
             logger.trace("Rachio API initialized");
             return true;
@@ -193,53 +354,80 @@ public class RachioApi {
         return false;
     } // initialize()
 
-    public HashMap<String, RachioDevice> getDevices() {
-        return deviceList;
+    /**
+     * Initialize from the snapshot of the last run, no api call is made. The caller should run a full refresh
+     * (refreshDevices()) afterwards to reconcile with the cloud.
+     *
+     * @param apikey Rachio apikey
+     * @param bridgeUID Bridge thing UID
+     * @return false: no usable snapshot, use initialize()
+     */
+    public boolean initializeFromSnapshot(String apikey, ThingUID bridgeUID) throws RachioApiException {
+        RachioSnapshotCache cache = snapshotCache;
+        RachioCloudStatus cloudStatus = cache != null ? cache.load(apikey) : null;
+        if (cloudStatus == null) {
+            return false;
+        }
+        this.apikey = apikey;
+        httpApi = new RachioHttp(this.apikey, httpPool);
+        webHooks.invalidate();
+        personId = cloudStatus.id;
+        setCloudStatus(cloudStatus);
+        logger.debug("RachioApi: Initialized from snapshot, {} devices", deviceList.size());
+        return true;
+    } // initializeFromSnapshot()
+
+    /**
+     * @param cache Snapshot of the account model, updated on initialize and whenever a full refresh finds changes
+     */
+    public void setSnapshotCache(RachioSnapshotCache cache) {
+        snapshotCache = cache;
     }
 
-    public RachioDevice getDevByUID(ThingUID bridgeUID, ThingUID thingUID) {
-        for (HashMap.Entry<String, RachioDevice> entry : deviceList.entrySet()) {
-            RachioDevice dev = entry.getValue();
-            logger.trace("RachioDev.getDevByUID: bridge {} / {}, device {} / {}", bridgeUID, dev.bridge_uid, thingUID,
-                    dev.dev_uid);
-            if (dev.bridge_uid.equals(bridgeUID) && dev.getUID().equals(thingUID)) {
-                logger.trace("RachioApi: Device '{}' found.", dev.name);
-                return dev;
-            }
+    /**
+     * Remove the snapshot, e.g. when the cloud rejects the apikey it was created with
+     */
+    public void deleteSnapshot() {
+        RachioSnapshotCache cache = snapshotCache;
+        if (cache != null) {
+            cache.delete();
         }
-        logger.debug("RachioApi.getDevByUID: Unable map UID to device");
-        return null;
     }
-    // getDevByUID()
 
-    public RachioZone getZoneByUID(ThingUID bridgeUID, ThingUID zoneUID) {
-        HashMap<String, RachioDevice> deviceList = getDevices();
-        if (deviceList == null) {
-            return null;
-        }
-        for (HashMap.Entry<String, RachioDevice> de : deviceList.entrySet()) {
-            RachioDevice dev = de.getValue();
+    public HashMap<String, RachioDevice> getDevices() {
+        return deviceList;
+    }
 
-            HashMap<String, RachioZone> zoneList = dev.getZones();
-            for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
-                RachioZone zone = ze.getValue();
-                if (zone.getUID().equals(zoneUID)) {
-                    return zone;
-                }
-            }
+    /**
+     * @return Index of the devices and zones, replaced whenever devices or zones are added or removed
+     */
+    public RachioDeviceRegistry getRegistry() {
+        return registry;
+    }
+
+    public RachioDevice getDevByUID(ThingUID bridgeUID, ThingUID thingUID) {
+        RachioDevice dev = registry.getDevice(bridgeUID, thingUID);
+        if (dev == null) {
+            logger.debug("RachioApi.getDevByUID: Unable map UID {} to device", thingUID);
         }
-        return null;
+        return dev;
     } // getDevByUID()
 
+    public RachioZone getZoneByUID(ThingUID bridgeUID, ThingUID zoneUID) {
+        return registry.getZone(zoneUID);
+    } // getZoneByUID()
+
     private Boolean initializePersonId() throws RachioApiException, RachioApiException {
         if (!personId.isEmpty()) {
             logger.trace("RachioApi: Using cached personId ('{}').", personId);
             return true;
         }
 
-        lastApiResult = httpApi.httpGet(APIURL_BASE + APIURL_GET_PERSON, null);
-        Gson gson = new Gson();
-        RachioCloudPersonId pid = gson.fromJson(lastApiResult.resultString, RachioCloudPersonId.class);
+        lastApiResult = httpApi.httpGet(baseUrl + APIURL_GET_PERSON, null, RachioCloudPersonId.class);
+        RachioCloudPersonId pid = lastApiResult.getResultObject(RachioCloudPersonId.class);
+        if (pid == null) {
+            throw new RachioApiException("RachioApi: Unable to obtain personId", lastApiResult);
+        }
         personId = pid.id;
         logger.debug("Using personId '{}'", personId);
         if (lastApiResult.isRateLimitCritical()) {
@@ -259,70 +447,152 @@ public class RachioApi {
         return info;
     }
 
-    public void stopWatering(String deviceId) throws RachioApiException {
+    public RachioApiResult stopWatering(String deviceId) throws RachioApiException {
         logger.debug("RachioApi. Stop watering for device '{}'", deviceId);
-        httpApi.httpPut(APIURL_BASE + APIURL_DEV_PUT_STOP, "{ \"id\" : \"" + deviceId + "\" }");
+        return httpApi.httpPut(baseUrl + APIURL_DEV_PUT_STOP, RachioCommand.device(deviceId));
     } // stopWatering()
 
-    public void enableDevice(String deviceId) throws RachioApiException {
+    public RachioApiResult enableDevice(String deviceId) throws RachioApiException {
         logger.debug("RachioApi: Enable device '{}'.", deviceId);
-        httpApi.httpPut(APIURL_BASE + APIURL_DEV_PUT_ON, "{ \"id\" : \"" + deviceId + "\" }");
+        return httpApi.httpPut(baseUrl + APIURL_DEV_PUT_ON, RachioCommand.device(deviceId));
     } // enableDevice
 
-    public void disableDevice(String deviceId) throws RachioApiException {
+    public RachioApiResult disableDevice(String deviceId) throws RachioApiException {
         logger.debug("RachioApi: Disable device '{}'.", deviceId);
-        httpApi.httpPut(APIURL_BASE + APIURL_DEV_PUT_OFF, "{ \"id\" : \"" + deviceId + "\" }");
+        return httpApi.httpPut(baseUrl + APIURL_DEV_PUT_OFF, RachioCommand.device(deviceId));
     } // disableDevice
 
-    public void rainDelay(String deviceId, Integer delay) throws RachioApiException {
+    public RachioApiResult rainDelay(String deviceId, Integer delay) throws RachioApiException {
         logger.debug("RachioApi: Start dain relay for device '{}'.", deviceId);
-        httpApi.httpPut(APIURL_BASE + APIURL_DEV_PUT_RAIN_DELAY,
-                "{ \"id\" : \"" + deviceId + "\", \"durartion\" : " + delay + " }");
+        return httpApi.httpPut(baseUrl + APIURL_DEV_PUT_RAIN_DELAY, RachioCommand.rainDelay(deviceId, delay));
     } // rainDelay
 
-    public void runMultilpeZones(String zoneListJson) throws RachioApiException {
-        logger.debug("RachioApi: Start multiple zones '{}'.", zoneListJson);
-        httpApi.httpPut(APIURL_BASE + APIURL_ZONE_PUT_MULTIPLE_START, zoneListJson);
+    public RachioApiResult runMultipleZones(RachioMultiZoneCommand zoneList) throws RachioApiException {
+        logger.debug("RachioApi: Start multiple zones {}.", zoneList.getZoneIds());
+        return httpApi.httpPut(baseUrl + APIURL_ZONE_PUT_MULTIPLE_START, zoneList);
     } // startZone()
 
-    public void runZone(String zoneId, int duration) throws RachioApiException {
+    public RachioApiResult runZone(String zoneId, int duration) throws RachioApiException {
         logger.debug("RachioApi: Start zone '{}' for {} sec.", zoneId, duration);
-        httpApi.httpPut(APIURL_BASE + APIURL_ZONE_PUT_START,
-                "{ \"id\" : \"" + zoneId + "\", \"duration\" : " + duration + " }");
+        return httpApi.httpPut(baseUrl + APIURL_ZONE_PUT_START, RachioCommand.zoneStart(zoneId, duration));
     } // startZone()
 
-    public void getDeviceInfo(String deviceId) throws RachioApiException {
-        httpApi.httpGet(APIURL_BASE + APIURL_GET_DEVICE + "/" + deviceId, null);
+    // ------------ non-blocking variants, dispatched by the api's command queue
+
+    public CompletableFuture<RachioApiResult> stopWateringAsync(String deviceId) {
+        return submit(RachioCommandPriority.STOP, deviceId, "stop:" + deviceId, () -> stopWatering(deviceId));
+    }
+
+    public CompletableFuture<RachioApiResult> enableDeviceAsync(String deviceId) {
+        return submit(RachioCommandPriority.DEVICE, deviceId, "standby:" + deviceId, () -> enableDevice(deviceId));
+    }
+
+    public CompletableFuture<RachioApiResult> disableDeviceAsync(String deviceId) {
+        return submit(RachioCommandPriority.DEVICE, deviceId, "standby:" + deviceId, () -> disableDevice(deviceId));
+    }
+
+    public CompletableFuture<RachioApiResult> rainDelayAsync(String deviceId, Integer delay) {
+        return submit(RachioCommandPriority.DEVICE, deviceId, "raindelay:" + deviceId,
+                () -> rainDelay(deviceId, delay));
+    }
+
+    public CompletableFuture<RachioApiResult> runMultipleZonesAsync(String deviceId,
+            RachioMultiZoneCommand zoneList) {
+        return submit(RachioCommandPriority.START, deviceId, "start:" + deviceId, () -> runMultipleZones(zoneList));
+    }
+
+    public CompletableFuture<RachioApiResult> runZoneAsync(String deviceId, String zoneId, int duration) {
+        return submit(RachioCommandPriority.START, deviceId, "zone:" + zoneId, () -> runZone(zoneId, duration));
+    }
+
+    public CompletableFuture<RachioApiResult> registerWebHookAsync(String deviceId, String callbackUrl,
+            String externalId, Boolean clearAllCallbacks) {
+        return submit(RachioCommandPriority.BACKGROUND, deviceId, "webhook:" + deviceId,
+                () -> registerWebHook(deviceId, callbackUrl, externalId, clearAllCallbacks));
+    }
+
+    public CompletableFuture<RachioApiResult> registerWebHooksAsync(String callbackUrl, String externalId,
+            Boolean clearAllCallbacks) {
+        return submit(RachioCommandPriority.BACKGROUND, null, "webhooks",
+                () -> registerWebHooks(callbackUrl, externalId, clearAllCallbacks));
+    }
+
+    /**
+     * Queue the given api call, see {@link RachioCommandQueue#submit}
+     *
+     * @param priority Call priority
+     * @param deviceId Device the call refers to, may be null
+     * @param key Pending calls with the same key are replaced by this one, may be null
+     * @param call Blocking api call
+     * @return future for the api result
+     */
+    public CompletableFuture<RachioApiResult> submit(RachioCommandPriority priority, String deviceId, String key,
+            RachioApiCall call) {
+        return commandQueue.submit(priority, deviceId, key, call);
+    }
+
+    /**
+     * Stop the command queue, pending calls are cancelled
+     */
+    public void dispose() {
+        commandQueue.shutdown();
+    }
+
+    public RachioApiResult getDeviceInfo(String deviceId) throws RachioApiException {
+        lastApiResult = httpApi.httpGet(baseUrl + APIURL_GET_DEVICE + "/" + deviceId, null,
+                RachioCloudDevice.class);
+        return lastApiResult;
     } // getDeviceInfo
 
-    public void registerWebHook(String deviceId, String callbackUrl, String externalId, Boolean clearAllCallbacks)
-            throws RachioApiException {
-        // first check/delete existing webhooks
+    /**
+     * Make sure the webhook of the device is registered, see {@link RachioWebHookReconciler}
+     *
+     * @return result of the last api call, null if the webhook was already verified
+     */
+    public RachioApiResult registerWebHook(String deviceId, String callbackUrl, String externalId,
+            Boolean clearAllCallbacks) throws RachioApiException {
         logger.debug("RachioApi: Register webhook, url={}, externalId={}, clearAllCallbacks={}", callbackUrl,
                 externalId, clearAllCallbacks.toString());
+        webHooks.setDesired(deviceId, callbackUrl, externalId, clearAllCallbacks, WEBHOOK_EVENT_TYPES);
+        return webHooks.reconcile(deviceId);
+    }
 
-        String json = "";
-        try {
-            json = httpApi.httpGet(APIURL_BASE + APIURL_DEV_QUERY_WEBHOOK + "/" + deviceId + "/webhook",
-                    null).resultString; // throws
-            logger.debug("RachioApi: Registered webhooks for device '{}': {}", deviceId, json);
-            logger.trace("RachioWebHook: Registered WebHooks - JSON='{}'", json);
-            json = "{\"webhooks\":" + json + "}";
-            Gson gson = new Gson();
-            RachioApiWebHookList list = gson.fromJson(json, RachioApiWebHookList.class);
-            for (int i = 0; i < list.webhooks.size(); i++) {
-                RachioApiWebHookEntry whe = list.webhooks.get(i);
-                logger.debug("RachioApi: WebHook #{}: id='{}', url='{}', externalId='{}'", i, whe.id, whe.url,
-                        whe.externalId);
-                if (clearAllCallbacks || whe.url.equals(callbackUrl)) {
-                    logger.debug("RachioApi: The callback url '{}' is already registered -> delete", callbackUrl);
-                    httpApi.httpDelete(APIURL_BASE + APIURL_DEV_DELETE_WEBHOOK + "/" + whe.id, null);
-                }
-            }
-        } catch (Exception e) {
-            logger.debug("RachioApi: Deleting WebHook(s); failed: {}, JSON='{}'", e.getMessage(), json);
+    /**
+     * Register the webhooks of all devices in one pass, devices with a verified webhook cause no api call
+     *
+     * @return result of the last api call, null if all webhooks were already verified
+     */
+    public RachioApiResult registerWebHooks(String callbackUrl, String externalId, Boolean clearAllCallbacks)
+            throws RachioApiException {
+        for (String deviceId : deviceList.keySet()) {
+            webHooks.setDesired(deviceId, callbackUrl, externalId, clearAllCallbacks, WEBHOOK_EVENT_TYPES);
         }
+        return webHooks.reconcileAll();
+    }
+
+    /**
+     * @return number of devices, which webhook is not verified yet (e.g. the call budget was exhausted)
+     */
+    public int getPendingWebHooks() {
+        return webHooks.getPendingCount();
+    }
 
+    RachioApiResult getWebHookList(String deviceId) throws RachioApiException {
+        if (httpApi == null) {
+            throw new RachioApiException("RachioApi.getWebHookList: API not initialized");
+        }
+        RachioApiResult result = httpApi.httpGet(baseUrl + APIURL_DEV_QUERY_WEBHOOK + "/" + deviceId + "/webhook",
+                null, WEBHOOK_LIST_TYPE, RachioApiPriority.BACKGROUND);
+        logger.trace("RachioWebHook: Registered WebHooks - JSON='{}'", result.resultString);
+        return result;
+    }
+
+    RachioApiResult deleteWebHook(String webHookId) throws RachioApiException {
+        return httpApi.httpDelete(baseUrl + APIURL_DEV_DELETE_WEBHOOK + "/" + webHookId, null);
+    }
+
+    RachioApiResult createWebHook(String deviceId, String callbackUrl, String externalId, String... eventTypes)
+            throws RachioApiException {
         // {
         // "device":{"id":"2a5e7d3c-c140-4e2e-91a1-a212a518adc5"},
         // "externalId" : "external company ID",
@@ -330,58 +600,137 @@ public class RachioApi {
         // "eventTypes":[{"id":"1"},{"id":"2"}]
         // }
         //
-        logger.debug("RachioApi: Register WebHook, callback url = '{}'", callbackUrl);
-        String jsonData = "{ " +
-                "\"device\":{\"id\":\"" + deviceId + "\"}, " +
-                "\"externalId\" : \"" + externalId + "\", " +
-                "\"url\" : \"" + callbackUrl + "\", " +
-                "\"eventTypes\" : [" +
-                "{\"id\" : \"" + WHE_DEVICE_STATUS + "\"}, " +
-                "{\"id\" : \"" + WHE_RAIN_DELAY + "\"}, " +
-                "{\"id\" : \"" + WEATHER_INTELLIGENCE + "\"}, " +
-                "{\"id\" : \"" + WHE_WATER_BUDGET + "\"}, " +
-                "{\"id\" : \"" + WHE_ZONE_DELTA + "\"}, " +
-                "{\"id\" : \"" + WHE_SCHEDULE_STATUS + "\"}, " +
-                "{\"id\" : \"" + WHE_ZONE_STATUS + "\"}, " +
-                "{\"id\" : \"" + WHE_RAIN_SENSOR_DETECTION + "\"}, " +
-                "{\"id\" : \"" + WHE_DELTA + "\"} " +
-                "]" +
-                "}";
-        httpApi.httpPost(APIURL_BASE + APIURL_DEV_POST_WEBHOOK, jsonData);
+        return httpApi.httpPost(baseUrl + APIURL_DEV_POST_WEBHOOK,
+                RachioCommand.webHook(deviceId, externalId, callbackUrl, eventTypes));
     }
 
     // ------------ internal stuff
 
     private Boolean initializeDevices(ThingUID BridgeUID) throws RachioApiException {
-        String json = "";
         if (httpApi == null) {
             logger.debug("RachioApi.initializeDevices: httpAPI not initialized");
             return false;
         }
-        json = httpApi.httpGet(APIURL_BASE + APIURL_GET_PERSONID + "/" + personId, null).resultString;
-        logger.trace("RachioApi: Initialize from JSON='{}'", json);
+        RachioCloudStatus cloudStatus = getCloudStatus();
+        setCloudStatus(cloudStatus);
+        saveSnapshot(cloudStatus);
+        return true;
+    } // initializeDevices()
 
-        Gson gson = new Gson();
-        RachioCloudStatus cloudStatus = gson.fromJson(json, RachioCloudStatus.class);
+    private void setCloudStatus(RachioCloudStatus cloudStatus) {
         userName = cloudStatus.username;
         fullName = cloudStatus.fullName;
         email = cloudStatus.email;
 
-        deviceList = new HashMap<String, RachioDevice>(); // discard current list
+        // discard current list, the new one is published after all devices are created
+        HashMap<String, RachioDevice> devices = new HashMap<String, RachioDevice>();
         for (int i = 0; i < cloudStatus.devices.size(); i++) {
             RachioCloudDevice device = cloudStatus.devices.get(i);
             if (!device.deleted) {
-                deviceList.put(device.id, new RachioDevice(device));
+                devices.put(device.id, new RachioDevice(device));
                 logger.trace("RachioApi: Device '{}' initialized, {} zones.", device.name, device.zones.size());
             }
         }
-        return true;
-    } // initializeDevices()
+        deviceList = devices;
+        registry = new RachioDeviceRegistry(devices);
+    }
+
+    private void saveSnapshot(RachioCloudStatus cloudStatus) {
+        RachioSnapshotCache cache = snapshotCache;
+        if (cache != null) {
+            cache.save(apikey, cloudStatus);
+        }
+    }
 
     public Boolean initializeZones() {
         return true;
     } // initializeZones()
 
+    /**
+     * Re-read the person document and patch the existing device and zone objects in place. Unlike initialize() the
+     * device list is not rebuilt, so thing handler references and runtime settings of devices/zones are preserved.
+     *
+     * @return Devices and zones, which were added, updated or removed
+     * @throws RachioApiException
+     */
+    public RachioRefreshResult refreshDevices() throws RachioApiException {
+        if (httpApi == null) {
+            throw new RachioApiException("RachioApi.refreshDevices: API not initialized");
+        }
+        RachioCloudStatus cloudStatus = getCloudStatus();
+        RachioRefreshResult changes = new RachioRefreshResult();
+
+        HashMap<String, RachioDevice> devices = new HashMap<>(deviceList);
+        HashMap<String, RachioDevice> removedDevices = new HashMap<>(deviceList);
+        for (RachioCloudDevice cdev : cloudStatus.devices) {
+            if (cdev.deleted) {
+                continue;
+            }
+            removedDevices.remove(cdev.id);
+            RachioDevice dev = devices.get(cdev.id);
+            if (dev == null) {
+                dev = new RachioDevice(cdev);
+                devices.put(cdev.id, dev);
+                changes.newDevices.add(dev);
+                changes.newZones.addAll(dev.getZones().values());
+                logger.debug("RachioApi: New device '{}' ({})", dev.getThingName(), dev.id);
+                continue;
+            }
+            dev.update(cdev, changes);
+        }
+        for (RachioDevice dev : removedDevices.values()) {
+            devices.remove(dev.id);
+            webHooks.remove(dev.id);
+            changes.removedDevices.add(dev);
+            logger.debug("RachioApi: Device '{}' ({}) was removed", dev.getThingName(), dev.id);
+        }
+        deviceList = devices;
+        registry = new RachioDeviceRegistry(devices);
+        if (!changes.isEmpty()) {
+            saveSnapshot(cloudStatus);
+        }
+        return changes;
+    } // refreshDevices()
+
+    /**
+     * Re-read a single device (GET /device/{id}) and patch the existing device and its zones. This is much cheaper
+     * than refreshDevices(), which reads all devices, zones and schedules of the account.
+     *
+     * @param deviceId Device to refresh
+     * @param changes Updated device and zones are added to this result
+     * @return false: device is unknown
+     * @throws RachioApiException
+     */
+    public boolean refreshDevice(String deviceId, RachioRefreshResult changes) throws RachioApiException {
+        if (httpApi == null) {
+            throw new RachioApiException("RachioApi.refreshDevice: API not initialized");
+        }
+        RachioDevice dev = deviceList.get(deviceId);
+        if (dev == null) {
+            return false;
+        }
+        RachioCloudDevice cdev = getDeviceInfo(deviceId).getResultObject(RachioCloudDevice.class);
+        if (cdev == null) {
+            throw new RachioApiException("RachioApi: Unable to decode device data", lastApiResult);
+        }
+        int zoneChanges = changes.newZones.size() + changes.removedZones.size();
+        dev.update(cdev, changes);
+        if (changes.newZones.size() + changes.removedZones.size() != zoneChanges) {
+            registry = new RachioDeviceRegistry(deviceList);
+        }
+        return true;
+    } // refreshDevice()
+
+    private RachioCloudStatus getCloudStatus() throws RachioApiException {
+        lastApiResult = httpApi.httpGet(baseUrl + APIURL_GET_PERSONID + "/" + personId, null,
+                RachioCloudStatus.class);
+        RachioCloudStatus cloudStatus = lastApiResult.getResultObject(RachioCloudStatus.class);
+        if (cloudStatus == null) {
+            throw new RachioApiException("RachioApi: Unable to decode person data", lastApiResult);
+        }
+        return cloudStatus;
+    }
+
     public Map<String, String> fillProperties() {
         Map<String, String> properties = new HashMap<>();
         properties.put(Thing.PROPERTY_VENDOR, RachioBindingConstants.BINDING_VENDOR);
@@ -390,6 +739,7 @@ public class RachioApi {
         properties.put(RachioBindingConstants.PROPERTY_PERSON_USER, userName);
         properties.put(RachioBindingConstants.PROPERTY_PERSON_NAME, fullName);
         properties.put(RachioBindingConstants.PROPERTY_PERSON_EMAIL, email);
+        properties.put(RachioBindingConstants.PROPERTY_EXT_ID, getExternalId());
         return properties;
     }
 
@@ -420,68 +770,4 @@ public class RachioApi {
             return null;
         }
     }
-
-    public static void copyMatchingFields(Object fromObj, Object toObj) {
-        if (fromObj == null || toObj == null) {
-            throw new NullPointerException("Source and destination objects must be non-null");
-        }
-
-        Class fromClass = fromObj.getClass();
-        Class toClass = toObj.getClass();
-
-        Field[] fields = fromClass.getFields(); // .getDeclaredFields();
-        for (Field f : fields) {
-            try {
-                String fname = f.getName();
-                Field t = toClass.getSuperclass().getDeclaredField(fname);
-
-                if (t.getType() == f.getType()) {
-                    // extend this if to copy more immutable types if interested
-                    if (t.getType() == String.class || t.getType() == int.class || t.getType() == long.class
-                            || t.getType() == double.class || t.getType() == char.class || t.getType() == boolean.class
-                            || t.getType() == Double.class || t.getType() == Integer.class || t.getType() == Long.class
-                            || t.getType() == Character.class || t.getType() == Boolean.class) {
-                        f.setAccessible(true);
-                        t.setAccessible(true);
-                        t.set(toObj, f.get(fromObj));
-                    } else if (t.getType() == Date.class) {
-                        // dates are not immutable, so clone non-null dates into the destination object
-                        Date d = (Date) f.get(fromObj);
-                        f.setAccessible(true);
-                        t.setAccessible(true);
-                        t.set(toObj, d != null ? d.clone() : null);
-                    } else if (t.getType() == java.util.ArrayList.class) {
-                        // dates are not immutable, so clone non-null dates into the destination object
-                        ArrayList a = (ArrayList) f.get(fromObj);
-                        f.setAccessible(true);
-                        t.setAccessible(true);
-                        t.set(toObj, a != null ? a.clone() : null);
-                    } /*
-                       * else if ((t
-                       * .getType() ==
-                       * org.openhab.binding.rachio.internal.api.RachioCloudZone.RachioCustomeNozzle.class)
-                       * || (t.getType() ==
-                       * org.openhab.binding.rachio.internal.api.RachioCloudZone.RachioCustomSoil.class)
-                       * || (t.getType() ==
-                       * org.openhab.binding.rachio.internal.api.RachioCloudZone.RachioCustomSlope.class)
-                       * || (t.getType() ==
-                       * org.openhab.binding.rachio.internal.api.RachioCloudZone.RachioCustomCrop.class)
-                       * || (t.getType() ==
-                       * org.openhab.binding.rachio.internal.api.RachioCloudZone.RachioCustomCrop.class)) {
-                       * f.setAccessible(true);
-                       * t.setAccessible(true);
-                       * t.set(toObj, f.get(fromObj));
-                       * }
-                       */ else {
-                        logger.debug("RachioApiInternal: Unable to update field '{}', '{}'", t.getName(), t.getType());
-                    }
-                }
-            } catch (NoSuchFieldException ex) {
-                // skip it
-            } catch (IllegalAccessException ex) {
-                logger.warn("Unable to copy field: {}", f.getName());
-            }
-        } // or (Field f : fields)
-    } // copyMatchingFields
-
 } // class
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioCircuitBreaker} tracks the health of one cloud endpoint (path without ids) for an apikey. After a
+ * number of consecutive transient failures (timeouts, connection errors, 5xx) the circuit opens and requests fail fast
+ * without touching the network or the api budget. When the open period is over a single trial request is let through
+ * (half open), its result closes the circuit or opens it again.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioCircuitBreaker {
+    public enum RachioCircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final ConcurrentHashMap<String, RachioCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(RachioCircuitBreaker.class);
+
+    private final String apikey;
+    private final String endpoint;
+    private RachioCircuitState state = RachioCircuitState.CLOSED;
+    private int failures = 0;
+    private long openUntil = 0;
+    private long trialStarted = 0;
+    private String lastError = "";
+
+    private RachioCircuitBreaker(String apikey, String endpoint) {
+        this.apikey = apikey;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Get the circuit breaker for the endpoint of the given URL
+     *
+     * @param apikey Rachio apikey
+     * @param location Request URL
+     * @return RachioCircuitBreaker
+     */
+    public static RachioCircuitBreaker getInstance(String apikey, URL location) {
+        String endpoint = RachioMetrics.getEndpoint(location);
+        String account = apikey != null ? apikey : "";
+        return breakers.computeIfAbsent(account + " " + endpoint, k -> new RachioCircuitBreaker(account, endpoint));
+    }
+
+    /**
+     * Find an open circuit among the endpoints of the given URLs
+     *
+     * @param apikey Rachio apikey
+     * @param locations Request URLs
+     * @return first open circuit breaker, null if these endpoints are healthy
+     */
+    public static RachioCircuitBreaker getOpenCircuit(String apikey, URL... locations) {
+        String account = apikey != null ? apikey : "";
+        for (URL location : locations) {
+            RachioCircuitBreaker breaker = breakers.get(account + " " + RachioMetrics.getEndpoint(location));
+            if ((breaker != null) && (breaker.getState() == RachioCircuitState.OPEN)) {
+                return breaker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if a request may be sent. Once the open period is over the first caller gets the trial request.
+     *
+     * @return true: send the request, false: fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                logger.debug("RachioCircuitBreaker: {} is half open, sending trial request", endpoint);
+                state = RachioCircuitState.HALF_OPEN;
+                trialStarted = System.currentTimeMillis();
+                return true;
+            default:
+                // trial request in progress, allow another one if it never reported back
+                if (System.currentTimeMillis() - trialStarted < RACHIO_CIRCUIT_OPEN_SEC * 1000L) {
+                    return false;
+                }
+                trialStarted = System.currentTimeMillis();
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != RachioCircuitState.CLOSED) {
+            logger.info("RachioCircuitBreaker: {} is available again", endpoint);
+        }
+        state = RachioCircuitState.CLOSED;
+        failures = 0;
+        lastError = "";
+    }
+
+    public synchronized void recordFailure(String error) {
+        failures++;
+        lastError = error;
+        if ((state == RachioCircuitState.HALF_OPEN) || (failures >= RACHIO_CIRCUIT_FAILURE_THRESHOLD)) {
+            if (state != RachioCircuitState.OPEN) {
+                logger.warn("RachioCircuitBreaker: {} failed {} times, pause requests for {}s: {}", endpoint,
+                        failures, RACHIO_CIRCUIT_OPEN_SEC, error);
+            }
+            state = RachioCircuitState.OPEN;
+            openUntil = System.currentTimeMillis() + RACHIO_CIRCUIT_OPEN_SEC * 1000L;
+        }
+    }
+
+    /**
+     * Record a failure, which doesn't tell about the availability of the endpoint (e.g. http 4xx or a decoding error).
+     * Only a successful trial request closes a half open circuit, so it opens again.
+     *
+     * @param error Error message
+     * @param answered true: the cloud answered the request, the consecutive failures are reset
+     */
+    public synchronized void recordNonTransientFailure(String error, boolean answered) {
+        if (state == RachioCircuitState.HALF_OPEN) {
+            recordFailure(error);
+        } else if (answered) {
+            failures = 0;
+        }
+    }
+
+    public synchronized RachioCircuitState getState() {
+        if ((state == RachioCircuitState.OPEN) && (System.currentTimeMillis() >= openUntil)) {
+            return RachioCircuitState.HALF_OPEN; // next request will be a trial
+        }
+        return state;
+    }
+
+    public synchronized long getOpenUntil() {
+        return openUntil;
+    }
+
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+} // class
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link RachioCommand} is the payload of a Rachio cloud api write call (PUT/POST). Commands are serialized with
+ * a streaming JsonWriter as UTF-8, so field names and escaping are always correct and no intermediate JSON string is
+ * built. Each sender thread re-uses its encoder and byte buffer, only the JsonWriter is created per command (it can't
+ * be reset after a complete document).
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public abstract class RachioCommand {
+    private static final int WRITE_BUFFER_SIZE = 512;
+
+    /**
+     * Serialization buffer of a sender thread, the UTF-8 encoder writes into it
+     */
+    private static class RachioCommandBuffer extends ByteArrayOutputStream {
+        final Writer writer = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+
+        RachioCommandBuffer() {
+            super(WRITE_BUFFER_SIZE);
+        }
+    }
+
+    private static final ThreadLocal<RachioCommandBuffer> buffers = ThreadLocal
+            .withInitial(RachioCommandBuffer::new);
+
+    /**
+     * Write the command as JSON object
+     *
+     * @param out JsonWriter
+     * @throws IOException
+     */
+    protected abstract void write(JsonWriter out) throws IOException;
+
+    /**
+     * Serialize the command as UTF-8 encoded JSON to the given stream, the stream is flushed but not closed
+     *
+     * @param out Output stream, e.g. the http request body
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        RachioCommandBuffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            JsonWriter writer = new JsonWriter(buffer.writer);
+            write(writer);
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            buffers.remove(); // the encoder might keep a partial command
+            throw e;
+        }
+        buffer.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * @return JSON representation, used for logging
+     */
+    public String toJson() {
+        StringWriter json = new StringWriter();
+        try {
+            write(new JsonWriter(json));
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+        }
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * @param deviceId Device id
+     * @return { "id" : deviceId }, used for stop watering, standby on/off
+     */
+    public static RachioCommand device(String deviceId) {
+        return new RachioIdCommand(deviceId);
+    }
+
+    /**
+     * @param deviceId Device id
+     * @param duration Rain delay in seconds
+     * @return { "id" : deviceId, "duration" : duration }
+     */
+    public static RachioCommand rainDelay(String deviceId, int duration) {
+        return new RachioDurationCommand(deviceId, duration);
+    }
+
+    /**
+     * @param zoneId Zone id
+     * @param duration Run time in seconds
+     * @return { "id" : zoneId, "duration" : duration }
+     */
+    public static RachioCommand zoneStart(String zoneId, int duration) {
+        return new RachioDurationCommand(zoneId, duration);
+    }
+
+    /**
+     * @param deviceId Device id
+     * @param externalId External id, used to map webhook events to the bridge
+     * @param url Callback url
+     * @param eventTypes Event type ids
+     * @return webhook registration
+     */
+    public static RachioCommand webHook(String deviceId, String externalId, String url, String... eventTypes) {
+        return new RachioWebHookCommand(deviceId, externalId, url, Arrays.asList(eventTypes));
+    }
+
+    private static class RachioIdCommand extends RachioCommand {
+        private final String id;
+
+        RachioIdCommand(String id) {
+            this.id = id;
+        }
+
+        @Override
+        protected void write(JsonWriter out) throws IOException {
+            out.beginObject().name("id").value(id).endObject();
+        }
+    }
+
+    private static class RachioDurationCommand extends RachioCommand {
+        private final String id;
+        private final int duration;
+
+        RachioDurationCommand(String id, int duration) {
+            this.id = id;
+            this.duration = duration;
+        }
+
+        @Override
+        protected void write(JsonWriter out) throws IOException {
+            out.beginObject().name("id").value(id).name("duration").value(duration).endObject();
+        }
+    }
+
+    /**
+     * Start multiple zones one after the other, zones run in the order they were added
+     */
+    public static class RachioMultiZoneCommand extends RachioCommand {
+        private final List<String> zoneIds = new ArrayList<>();
+        private final List<Integer> durations = new ArrayList<>();
+
+        /**
+         * @param zoneId Zone id
+         * @param duration Run time in seconds
+         * @return this
+         */
+        public RachioMultiZoneCommand add(String zoneId, int duration) {
+            zoneIds.add(zoneId);
+            durations.add(duration);
+            return this;
+        }
+
+        public int size() {
+            return zoneIds.size();
+        }
+
+        public List<String> getZoneIds() {
+            return Collections.unmodifiableList(zoneIds);
+        }
+
+        @Override
+        protected void write(JsonWriter out) throws IOException {
+            out.beginObject().name("zones").beginArray();
+            for (int i = 0; i < zoneIds.size(); i++) {
+                out.beginObject().name("id").value(zoneIds.get(i)).name("duration").value(durations.get(i))
+                        .name("sortOrder").value(i + 1).endObject();
+            }
+            out.endArray().endObject();
+        }
+    }
+
+    private static class RachioWebHookCommand extends RachioCommand {
+        private final String deviceId;
+        private final String externalId;
+        private final String url;
+        private final List<String> eventTypes;
+
+        RachioWebHookCommand(String deviceId, String externalId, String url, List<String> eventTypes) {
+            this.deviceId = deviceId;
+            this.externalId = externalId;
+            this.url = url;
+            this.eventTypes = eventTypes;
+        }
+
+        @Override
+        protected void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("device").beginObject().name("id").value(deviceId).endObject();
+            out.name("externalId").value(externalId);
+            out.name("url").value(url);
+            out.name("eventTypes").beginArray();
+            for (String eventType : eventTypes) {
+                out.beginObject().name("id").value(eventType).endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+} // class
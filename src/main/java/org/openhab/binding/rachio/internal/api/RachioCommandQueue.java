@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioCommandQueue} dispatches the api calls of a bridge by priority. User commands and status
+ * refresh/background calls are executed by separate lanes, so a STOP never waits behind a poll in flight. Within a
+ * lane the pending calls are ordered strictly by priority (FIFO for the same priority). A call replaces a pending call
+ * with the same key and a STOP cancels pending zone starts of the same device.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioCommandQueue {
+    public enum RachioCommandPriority {
+        STOP, // stop watering
+        START, // start zone(s)
+        DEVICE, // rain delay, enable/disable device
+        REFRESH, // status polling
+        BACKGROUND; // discovery, webhook maintenance
+
+        public boolean isCommand() {
+            return ordinal() <= DEVICE.ordinal();
+        }
+    }
+
+    @FunctionalInterface
+    public interface RachioApiCall {
+        RachioApiResult execute() throws RachioApiException;
+    }
+
+    private class RachioQueuedCall implements Runnable, Comparable<RachioQueuedCall> {
+        private final RachioCommandPriority priority;
+        private final String deviceId;
+        private final String key;
+        private final RachioApiCall call;
+        private final long sequence = sequenceNumber.incrementAndGet();
+        private final CompletableFuture<RachioApiResult> future = new CompletableFuture<>();
+
+        RachioQueuedCall(RachioCommandPriority priority, String deviceId, String key, RachioApiCall call) {
+            this.priority = priority;
+            this.deviceId = deviceId;
+            this.key = key;
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return; // cancelled while pending
+            }
+            try {
+                future.complete(call.execute());
+            } catch (RachioApiException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(RachioQueuedCall other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+
+        boolean supersededBy(RachioQueuedCall other) {
+            if ((key != null) && key.equals(other.key)) {
+                return true;
+            }
+            return (other.priority == RachioCommandPriority.STOP) && (priority == RachioCommandPriority.START)
+                    && (deviceId != null) && deviceId.equals(other.deviceId);
+        }
+    }
+
+    private static final AtomicInteger laneThreads = new AtomicInteger();
+
+    private final Logger logger = LoggerFactory.getLogger(RachioCommandQueue.class);
+    private final AtomicLong sequenceNumber = new AtomicLong();
+    private final int maxDepth;
+    private ThreadPoolExecutor commandLane = null;
+    private ThreadPoolExecutor backgroundLane = null;
+
+    public RachioCommandQueue() {
+        this(RACHIO_API_QUEUE_SIZE);
+    }
+
+    /**
+     * @param maxDepth Max number of pending calls per lane
+     */
+    public RachioCommandQueue(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Queue an api call
+     *
+     * @param priority Call priority
+     * @param deviceId Device the call refers to, may be null
+     * @param key Pending calls with the same key are cancelled and replaced by this one, may be null
+     * @param call Blocking api call
+     * @return future for the api result, completes exceptionally with the RachioApiException if the call fails,
+     *         with a CancellationException if it was superseded or with a RejectedExecutionException if the queue is
+     *         full
+     */
+    public synchronized CompletableFuture<RachioApiResult> submit(RachioCommandPriority priority, String deviceId,
+            String key, RachioApiCall call) {
+        RachioQueuedCall queued = new RachioQueuedCall(priority, deviceId, key, call);
+        ThreadPoolExecutor lane = getLane(priority);
+        PriorityBlockingQueue<Runnable> queue = getQueue(lane);
+
+        Iterator<Runnable> it = queue.iterator();
+        RachioQueuedCall lowest = null;
+        while (it.hasNext()) {
+            RachioQueuedCall pending = (RachioQueuedCall) it.next();
+            if (pending.supersededBy(queued)) {
+                logger.debug("RachioCommandQueue: {} call (key={}) superseded by newer {} call", pending.priority,
+                        pending.key, priority);
+                if (queue.remove(pending)) {
+                    pending.future.completeExceptionally(new CancellationException("superseded by newer request"));
+                }
+            } else if ((lowest == null) || (pending.compareTo(lowest) > 0)) {
+                lowest = pending;
+            }
+        }
+
+        if (queue.size() >= maxDepth) {
+            if ((lowest == null) || (lowest.compareTo(queued) < 0)) {
+                logger.warn("RachioCommandQueue: Too many pending api calls, {} request rejected", priority);
+                queued.future.completeExceptionally(new RejectedExecutionException("api call queue is full"));
+                return queued.future;
+            }
+            logger.debug("RachioCommandQueue: Queue full, dropping pending {} call", lowest.priority);
+            if (queue.remove(lowest)) {
+                lowest.future
+                        .completeExceptionally(new RejectedExecutionException("dropped for higher priority call"));
+            }
+        }
+
+        try {
+            lane.execute(queued);
+        } catch (RejectedExecutionException e) {
+            queued.future.completeExceptionally(e);
+        }
+        return queued.future;
+    }
+
+    /**
+     * Stop both lanes, pending calls are cancelled
+     */
+    public synchronized void shutdown() {
+        commandLane = shutdown(commandLane);
+        backgroundLane = shutdown(backgroundLane);
+    }
+
+    private ThreadPoolExecutor shutdown(ThreadPoolExecutor lane) {
+        if (lane != null) {
+            for (Runnable r : lane.shutdownNow()) {
+                ((RachioQueuedCall) r).future.cancel(false);
+            }
+        }
+        return null;
+    }
+
+    private PriorityBlockingQueue<Runnable> getQueue(ThreadPoolExecutor lane) {
+        return (PriorityBlockingQueue<Runnable>) lane.getQueue();
+    }
+
+    private ThreadPoolExecutor getLane(RachioCommandPriority priority) {
+        if (priority.isCommand()) {
+            if (commandLane == null) {
+                commandLane = createLane("command");
+            }
+            return commandLane;
+        }
+        if (backgroundLane == null) {
+            backgroundLane = createLane("background");
+        }
+        return backgroundLane;
+    }
+
+    /**
+     * Each lane has a single thread, which keeps the execution order of the commands for a device
+     */
+    private ThreadPoolExecutor createLane(String name) {
+        ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, RACHIO_API_THREAD_IDLE_SEC, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "OH-binding-rachio-" + name + "-" + laneThreads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        lane.allowCoreThreadTimeOut(true);
+        return lane;
+    }
+} // class
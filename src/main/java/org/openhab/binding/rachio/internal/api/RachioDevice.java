@@ -14,8 +14,11 @@ package org.openhab.binding.rachio.internal.api;
 
 import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.thing.Thing;
@@ -23,57 +26,80 @@ import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.openhab.binding.rachio.RachioBindingConstants;
 import org.openhab.binding.rachio.handler.RachioDeviceHandler;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudNetworkSettings;
+import org.openhab.binding.rachio.internal.api.RachioCommand.RachioMultiZoneCommand;
+import org.openhab.binding.rachio.internal.api.RachioDeviceState.RachioZoneTable;
+import org.openhab.binding.rachio.internal.api.RachioScheduleTimeline.RachioRunWindow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The {@link RachioDevice} stores attributes received from the Rachio cloud api and represents a device..
+ * The {@link RachioDevice} stores attributes received from the Rachio cloud api and represents a device. Only the
+ * identifying attributes are kept as fields, the current values, runtime settings and the zones are provided by the
+ * immutable snapshot returned by getState(). Every change publishes a new snapshot, so
+ * the polling thread, the webhook servlet and thing handlers can update the device concurrently without locking.
  *
  * @author Markus Michels (markus7017) - Initial contribution
  */
 
-public class RachioDevice extends RachioCloudDevice {
+public class RachioDevice {
     private final Logger logger = LoggerFactory.getLogger(RachioDevice.class);
 
-    // extensions to cloud attributes
-    public String runList = "";
-    public Integer runTime = 0;
-    public String lastEvent = "";
-    public boolean paused = false;
-    public int rainDelay = 0;
-
-    public ThingUID bridge_uid;
-    public ThingUID dev_uid;
-    private HashMap<String, RachioZone> zoneList = new HashMap<String, RachioZone>();
-    private RachioDeviceHandler thingHandler = null;
-    public RachioCloudNetworkSettings network = new RachioCloudNetworkSettings();
-    public String scheduleName = "";
-
-    @SuppressWarnings("unused")
+    public final String id;
+    public final String macAddress;
+
+    public volatile ThingUID bridge_uid;
+    public volatile ThingUID dev_uid;
+    private final AtomicReference<RachioDeviceState> state = new AtomicReference<>();
+    private volatile RachioDeviceHandler thingHandler = null;
+    private volatile long refreshUntil = 0; // targeted refreshes are performed until this time
+    private volatile boolean resyncRequested = false; // an event couldn't be applied, refresh once
+    private volatile RachioScheduleTimeline timeline; // compiled schedule rules, rebuilt when the rules change
+
     public RachioDevice(RachioCloudDevice device) {
+        id = device.id;
+        macAddress = device.macAddress;
+        state.set(new RachioDeviceState(device, device.new RachioCloudNetworkSettings()));
         try {
-            RachioApi.copyMatchingFields(device, this);
             logger.trace("RachioDevice: Adding ddevice '{}' (id='{}', model='{}', on={}, status={}, deleted={})",
                     device.name, device.id, device.model, device.on, device.status, device.deleted);
             if (!device.deleted) {
-                zoneList = new HashMap<String, RachioZone>(); // discard current list
-                for (int i = 0; i < device.zones.size(); i++) {
-                    RachioCloudZone zone = device.zones.get(i);
-                    if (true /* zone.enabled */) {
-                        zoneList.put(zone.id, new RachioZone(zone, getThingID()));
-                    } else {
-                        logger.trace("RachioDevice: Zone '{}.{}[{}]' is disabled, skip.", device.name, zone.name,
-                                zone.zoneNumber);
-                    }
+                HashMap<String, RachioZone> zoneList = new HashMap<String, RachioZone>(); // discard current list
+                for (RachioCloudZone zone : device.zones) {
+                    // disabled zones are kept, discovery only creates things for enabled zones
+                    zoneList.put(zone.id, new RachioZone(zone, getThingID()));
                 }
+                RachioZoneTable zoneTable = new RachioZoneTable(zoneList);
+                updateState(s -> s.withZoneTable(zoneTable));
             }
-        } catch (
-
-        Exception e) {
+        } catch (Exception e) {
             logger.warn("RachioDevice: Unable to initialize '{}': {}", device.name, e.getMessage());
         }
     }
 
+    /**
+     * @return current snapshot of the device attributes and zones, never modified
+     */
+    public RachioDeviceState getState() {
+        return state.get();
+    }
+
+    /**
+     * Apply a change to the device attributes, a concurrent change is retried on the updated snapshot
+     *
+     * @param delta Creates the new snapshot from the current one
+     * @return previous snapshot
+     */
+    private RachioDeviceState updateState(UnaryOperator<RachioDeviceState> delta) {
+        while (true) {
+            RachioDeviceState current = state.get();
+            RachioDeviceState next = delta.apply(current);
+            if ((next == current) || state.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
     /**
      * Set the ThingHandler for this device
      *
@@ -103,8 +129,13 @@ public class RachioDevice extends RachioCloudDevice {
      * @return true: no change, false: update required
      */
     public boolean compare(RachioDevice cdev) {
-        if ((cdev == null) || !id.equalsIgnoreCase(cdev.id) || !status.equalsIgnoreCase(cdev.status) || (on != cdev.on)
-                || (paused != cdev.paused)) {
+        if (cdev == null) {
+            return false;
+        }
+        RachioDeviceState a = getState();
+        RachioDeviceState b = cdev.getState();
+        if (!id.equalsIgnoreCase(cdev.id) || !a.getStatus().equalsIgnoreCase(b.getStatus()) || (a.isOn() != b.isOn())
+                || (a.isPaused() != b.isPaused())) {
             logger.trace("RachioDevice: update data received");
             return false;
         }
@@ -117,12 +148,134 @@ public class RachioDevice extends RachioCloudDevice {
      * @param updatedData new device settings received from cloud call
      */
     public void update(RachioDevice updatedData) {
-        if ((updatedData == null) || !id.equals(updatedData.id)) {
+        if ((updatedData == null) || (updatedData == this) || !id.equals(updatedData.id)) {
             return;
         }
-        status = updatedData.status;
-        on = updatedData.on;
-        paused = updatedData.paused;
+        RachioDeviceState updated = updatedData.getState();
+        updateState(s -> s.withStatus(updated.getStatus(), updated.isOn(), updated.isPaused()));
+    }
+
+    /**
+     * Patch the device and its zones with the data from a refreshed cloud document
+     *
+     * @param cdev Device data as received from the cloud
+     * @param changes The changed fields of the device, added, updated and removed zones are reported here
+     * @return false: the cloud data doesn't belong to this device
+     */
+    public boolean update(RachioCloudDevice cdev, RachioApi.RachioRefreshResult changes) {
+        if ((cdev == null) || !id.equals(cdev.id)) {
+            return false;
+        }
+        RachioDeviceState old = updateState(s -> s.withCloudData(cdev));
+        updateZones(cdev, changes);
+        RachioStateChange change = RachioStateChange.diff(this, old, getState());
+        if (!change.isEmpty()) {
+            logger.trace("RachioDevice: Device '{}' changed: {}", id, change);
+            changes.updatedDevices.add(change);
+        }
+        return true;
+    }
+
+    /**
+     * Patch the zone list with the zones of a refreshed cloud document
+     *
+     * @param cdev Device data as received from the cloud
+     * @param changes Added, updated and removed zones are reported here
+     */
+    private void updateZones(RachioCloudDevice cdev, RachioApi.RachioRefreshResult changes) {
+        Map<String, RachioZone> current = getState().getZoneTable().getZones();
+        HashMap<String, RachioZone> zones = new HashMap<>(current);
+        HashMap<String, RachioZone> removedZones = new HashMap<>(current);
+        for (RachioCloudZone czone : cdev.zones) {
+            removedZones.remove(czone.id);
+            RachioZone zone = zones.get(czone.id);
+            if (zone == null) {
+                zone = new RachioZone(czone, getThingID());
+                zones.put(czone.id, zone);
+                changes.newZones.add(zone);
+            } else {
+                RachioStateChange change = zone.update(this, czone);
+                if (!change.isEmpty()) {
+                    changes.updatedZones.add(change);
+                }
+            }
+        }
+        for (RachioZone zone : removedZones.values()) {
+            zones.remove(zone.id);
+            changes.removedZones.add(zone);
+        }
+        // zone numbers may have changed, always rebuild the table
+        RachioZoneTable zoneTable = new RachioZoneTable(zones);
+        updateState(s -> s.withZoneTable(zoneTable));
+    }
+
+    /**
+     * Request targeted refreshes (GET /device/{id}) for the given time, e.g. after a command was sent or while a zone
+     * is watering.
+     *
+     * @param seconds Number of seconds to include this device in the targeted refresh
+     */
+    public void requestRefresh(int seconds) {
+        long until = System.currentTimeMillis() + seconds * 1000L;
+        if (until > refreshUntil) {
+            refreshUntil = until;
+        }
+    }
+
+    /**
+     * @return true: device should be refreshed on the next poll cycle
+     */
+    public boolean isRefreshRequested() {
+        return System.currentTimeMillis() < refreshUntil;
+    }
+
+    /**
+     * Request one targeted refresh, e.g. an event couldn't be applied to the device state. Unlike requestRefresh()
+     * this is also performed in event mode.
+     */
+    public void requestResync() {
+        resyncRequested = true;
+    }
+
+    /**
+     * @return true: the device state might be out of sync, refresh it on the next poll cycle
+     */
+    public boolean isResyncRequested() {
+        return resyncRequested;
+    }
+
+    /**
+     * The device was refreshed from the cloud
+     */
+    public void clearResync() {
+        resyncRequested = false;
+    }
+
+    /**
+     * @return run windows predicted from the schedule rules, compiled on first use after the rules changed
+     */
+    public RachioScheduleTimeline getScheduleTimeline() {
+        RachioDeviceState s = getState();
+        RachioScheduleTimeline t = timeline;
+        if ((t == null) || !t.isCompiledFrom(s.getScheduleRules(), s.getFlexScheduleRules())) {
+            t = new RachioScheduleTimeline(s.getScheduleRules(), s.getFlexScheduleRules());
+            logger.trace("RachioDevice: {} schedule rule(s) of device '{}' compiled", t.getRuleCount(), id);
+            timeline = t;
+        }
+        return t;
+    }
+
+    /**
+     * @param now Current time (ms)
+     * @return current or next scheduled run, null if the device is off or no run is expected (runs during a rain
+     *         delay are skipped)
+     */
+    public RachioRunWindow getNextRunWindow(long now) {
+        RachioDeviceState s = getState();
+        if (!s.isOn()) {
+            return null;
+        }
+        return getScheduleTimeline().getNextWindow(now, s.getRainDelayExpirationDate());
     }
 
     /**
@@ -149,11 +302,13 @@ public class RachioDevice extends RachioCloudDevice {
      * @return A map for key/value
      */
     public Map<String, String> fillProperties() {
+        RachioDeviceState s = getState();
+        RachioCloudNetworkSettings network = s.getNetwork();
         Map<String, String> properties = new HashMap<>();
         properties.put(Thing.PROPERTY_VENDOR, RachioBindingConstants.BINDING_VENDOR);
-        properties.put(PROPERTY_NAME, name);
-        properties.put(PROPERTY_MODEL, model);
-        properties.put(Thing.PROPERTY_SERIAL_NUMBER, serialNumber);
+        properties.put(PROPERTY_NAME, s.getName());
+        properties.put(PROPERTY_MODEL, s.getModel());
+        properties.put(Thing.PROPERTY_SERIAL_NUMBER, s.getSerialNumber());
         properties.put(Thing.PROPERTY_MAC_ADDRESS, macAddress);
         properties.put(PROPERTY_IP_ADDRESS, network.ip);
         properties.put(PROPERTY_IP_MASK, network.ip);
@@ -180,7 +335,7 @@ public class RachioDevice extends RachioCloudDevice {
      * @return Name
      */
     public String getThingName() {
-        return name;
+        return getState().getName();
     }
 
     /**
@@ -189,6 +344,7 @@ public class RachioDevice extends RachioCloudDevice {
      * @return Thing status
      */
     public ThingStatus getStatus() {
+        String status = getState().getStatus();
         if (status.equals("ONLINE")) {
             return ThingStatus.ONLINE;
         }
@@ -201,7 +357,7 @@ public class RachioDevice extends RachioCloudDevice {
 
     public void setStatus(String new_status) {
         if (new_status.equals("ONLINE") || new_status.equals("OFFLINE")) {
-            status = new_status;
+            updateState(s -> s.withStatus(new_status, s.isOn(), s.isPaused()));
             return;
         }
         logger.debug("RachioDevice: Device status '{}' was not set!", new_status);
@@ -213,7 +369,7 @@ public class RachioDevice extends RachioCloudDevice {
      * @return Controller status, ON=online, OFF=offline
      */
     public OnOffType getOnline() {
-        return status.equals("ONLINE") ? OnOffType.ON : OnOffType.OFF;
+        return getState().getStatus().equals("ONLINE") ? OnOffType.ON : OnOffType.OFF;
     }
 
     /**
@@ -222,7 +378,7 @@ public class RachioDevice extends RachioCloudDevice {
      * @return ON=enabled, OFF=disabled
      */
     public OnOffType getEnabled() {
-        return on ? OnOffType.ON : OnOffType.OFF;
+        return getState().isOn() ? OnOffType.ON : OnOffType.OFF;
     }
 
     /**
@@ -231,11 +387,12 @@ public class RachioDevice extends RachioCloudDevice {
      * @return ON=running, OFF=standby
      */
     public OnOffType getSleepMode() {
-        return paused ? OnOffType.ON : OnOffType.OFF;
+        return getState().isPaused() ? OnOffType.ON : OnOffType.OFF;
     }
 
     public void setSleepMode(String subType) {
-        paused = subType.contains("ON") ? true : false;
+        boolean paused = subType.contains("ON") ? true : false;
+        updateState(s -> s.withStatus(s.getStatus(), s.isOn(), paused));
     }
 
     /**
@@ -244,7 +401,16 @@ public class RachioDevice extends RachioCloudDevice {
      * @param newDelay Number of seconds for the Rain Delay mode
      */
     public void setRainDelayTime(int newDelay) {
-        rainDelay = newDelay;
+        updateState(s -> s.withRainDelay(newDelay));
+    }
+
+    /**
+     * Set the running schedule as reported by a SCHEDULE_STATUS event
+     *
+     * @param scheduleName Name of the schedule, "" if no schedule is running
+     */
+    public void setScheduleName(String scheduleName) {
+        updateState(s -> s.withScheduleName(scheduleName != null ? scheduleName : ""));
     }
 
     /**
@@ -253,16 +419,31 @@ public class RachioDevice extends RachioCloudDevice {
      * @return Comma seperated list of zones to run
      */
     public String getRunZones() {
-        return runList;
+        return getState().getRunList();
     }
 
     /**
      * Set the zone list for running the controller
      *
-     * @param list Comma seperated list of zone IDs
+     * @param list Comma seperated list of zone numbers, "" or "ALL" for all zones
      */
     public void setRunZones(String list) {
-        runList = list;
+        if (list.trim().isEmpty() || list.trim().equalsIgnoreCase("ALL")) {
+            updateState(s -> s.withRunZones(list, null));
+            return;
+        }
+        BitSet numbers = new BitSet();
+        for (String entry : list.split(",")) {
+            try {
+                int zoneNumber = Integer.parseInt(entry.trim());
+                if (zoneNumber >= 0) {
+                    numbers.set(zoneNumber);
+                }
+            } catch (NumberFormatException e) {
+                logger.debug("RachioDevice: Invalid zone number '{}' in run list '{}'", entry, list);
+            }
+        }
+        updateState(s -> s.withRunZones(list, numbers));
     }
 
     /**
@@ -271,7 +452,7 @@ public class RachioDevice extends RachioCloudDevice {
      * @return Total run time for the controller
      */
     public int getRunTime() {
-        return runTime;
+        return getState().getRunTime();
     }
 
     /**
@@ -280,69 +461,69 @@ public class RachioDevice extends RachioCloudDevice {
      * @param time Number of seconds to run the zones
      */
     public void setRunTime(int time) {
-        runTime = time;
+        updateState(s -> s.withRunTime(time));
     }
 
     public void setEvent(RachioEvent event) {
         String s = new RachioEventString(event).toJson();
         if (!s.isEmpty()) {
-            lastEvent = s;
+            updateState(state -> state.withEvent(s));
         }
     }
 
     public String getEvent() {
-        return lastEvent;
+        return getState().getLastEvent();
     }
 
     public void setNetwork(RachioCloudNetworkSettings network) {
-        this.network = network;
+        if (network != null) {
+            updateState(s -> s.withNetwork(network));
+        }
     }
 
-    public String getAllRunZonesJson(int defaultRuntime) {
-        boolean flAll = runList.equals("") || runList.equalsIgnoreCase("ALL");
+    /**
+     * @return network settings of the device formatted for logging
+     */
+    public String getNetworkInfo() {
+        RachioCloudNetworkSettings network = getState().getNetwork();
+        return String.format("ip=%s/%s, gw=%s, dns=%s/%s, wifi rssi=%s", network.ip, network.nm, network.gw,
+                network.dns1, network.dns2, network.rssi);
+    }
 
-        String list = runList + ","; // make sure last entry is terminated by ','
-        String json = "{ \"zones\" : [";
-        for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
-            RachioZone zone = ze.getValue();
-            if (flAll || (list.contains(zone.zoneNumber + ",") && (zone.getEnabled() == OnOffType.ON))) {
-                int runtime = zone.getStartRunTime() > 0 ? zone.getStartRunTime() : defaultRuntime;
-                if (json.contains("\"id\"")) {
-                    json = json + ", ";
-                }
-                json = json + "{ \"id\" : \"" + zone.id + "\", \"duration\" : " + runtime + ", \"sortOrder\" : 1}";
+    /**
+     * Build the command to start the zones of the run list (or all zones) in zone number order
+     *
+     * @param defaultRuntime Run time for zones without a start run time
+     * @return multi zone start command
+     */
+    public RachioMultiZoneCommand getRunZonesCommand(int defaultRuntime) {
+        RachioDeviceState s = getState();
+        RachioMultiZoneCommand command = new RachioMultiZoneCommand();
+        for (RachioZone zone : s.getZoneTable().getZonesByNumber()) {
+            if ((zone == null) || (!s.isRunAllZones()
+                    && (!s.isRunZone(zone.getZoneNumber()) || (zone.getEnabled() != OnOffType.ON)))) {
+                continue;
             }
+            int runtime = zone.getStartRunTime() > 0 ? zone.getStartRunTime() : defaultRuntime;
+            command.add(zone.id, runtime);
         }
-        json = json + "] }";
-        return json;
+        return command;
     }
 
     /**
      * Get a list of all zones belonging to this controller
      *
-     * @return Zone list (HashMap)
+     * @return Zone list (key=zone id), never modified
      */
-    public HashMap<String, RachioZone> getZones() {
-        return zoneList;
+    public Map<String, RachioZone> getZones() {
+        return getState().getZoneTable().getZones();
     }
 
     public RachioZone getZoneByNumber(int zoneNumber) {
-        for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
-            RachioZone zone = ze.getValue();
-            if ((zone != null) && zone.zoneNumber == zoneNumber) {
-                return zone;
-            }
-        }
-        return null;
+        return getState().getZoneTable().getZone(zoneNumber);
     }
 
     public RachioZone getZoneById(String zoneId) {
-        for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
-            RachioZone zone = ze.getValue();
-            if ((zone != null) && zone.id.equals(zoneId)) {
-                return zone;
-            }
-        }
-        return null;
+        return getState().getZoneTable().getZone(zoneId);
     }
 } // class rachioDevice
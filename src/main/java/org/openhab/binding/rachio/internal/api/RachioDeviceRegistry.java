@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.smarthome.core.thing.ThingUID;
+
+/**
+ * The {@link RachioDeviceRegistry} indexes the devices and zones of an account: devices by id, MAC address and thing
+ * id (last segment of the ThingUID), zones by id, thing id and (device id, zone number). The registry is immutable, it
+ * is rebuilt whenever the device list or the zone list of a device changes and replaced as a whole, so lookups don't
+ * need locking.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioDeviceRegistry {
+    public static final RachioDeviceRegistry EMPTY = new RachioDeviceRegistry(Collections.emptyMap());
+
+    private final Map<String, RachioDevice> devicesById = new HashMap<>();
+    private final Map<String, RachioDevice> devicesByMac = new HashMap<>();
+    private final Map<String, RachioDevice> devicesByThingId = new HashMap<>();
+    private final Map<String, RachioZone> zonesById = new HashMap<>();
+    private final Map<String, RachioZone> zonesByThingId = new HashMap<>();
+    private final Map<String, RachioDevice> zoneOwners = new HashMap<>();
+    private final Map<String, Map<Integer, RachioZone>> zonesByNumber = new HashMap<>();
+
+    /**
+     * Build the indexes
+     *
+     * @param devices Device list (key=device id)
+     */
+    public RachioDeviceRegistry(Map<String, RachioDevice> devices) {
+        for (RachioDevice dev : devices.values()) {
+            devicesById.put(normalize(dev.id), dev);
+            // the MAC is missing in a partial document, such a device can't be mapped to a thing
+            if (dev.macAddress != null) {
+                devicesByMac.put(normalize(dev.macAddress), dev);
+                devicesByThingId.put(dev.getThingID(), dev);
+            }
+
+            Map<Integer, RachioZone> numbers = new HashMap<>();
+            for (RachioZone zone : dev.getZones().values()) {
+                zonesById.put(normalize(zone.id), zone);
+                zonesByThingId.put(zone.getThingID(), zone);
+                zoneOwners.put(normalize(zone.id), dev);
+                numbers.put(zone.getZoneNumber(), zone);
+            }
+            zonesByNumber.put(normalize(dev.id), numbers);
+        }
+    }
+
+    /**
+     * @param deviceId Rachio device id (case insensitive)
+     * @return device or null
+     */
+    public RachioDevice getDevice(String deviceId) {
+        return deviceId != null ? devicesById.get(normalize(deviceId)) : null;
+    }
+
+    /**
+     * @param macAddress MAC address as reported by the cloud (case insensitive)
+     * @return device or null
+     */
+    public RachioDevice getDeviceByMac(String macAddress) {
+        return macAddress != null ? devicesByMac.get(normalize(macAddress)) : null;
+    }
+
+    /**
+     * Find the device, which has the given ThingUID assigned
+     *
+     * @param bridgeUID Bridge ThingUID
+     * @param thingUID Device ThingUID
+     * @return device or null if unknown or not yet mapped to a thing
+     */
+    public RachioDevice getDevice(ThingUID bridgeUID, ThingUID thingUID) {
+        if (thingUID == null) {
+            return null;
+        }
+        RachioDevice dev = devicesByThingId.get(thingUID.getId());
+        if ((dev == null) || !thingUID.equals(dev.getUID()) || (dev.bridge_uid == null)
+                || !dev.bridge_uid.equals(bridgeUID)) {
+            return null;
+        }
+        return dev;
+    }
+
+    /**
+     * @param zoneId Rachio zone id (case insensitive)
+     * @return zone or null
+     */
+    public RachioZone getZone(String zoneId) {
+        return zoneId != null ? zonesById.get(normalize(zoneId)) : null;
+    }
+
+    /**
+     * Find the zone, which has the given ThingUID assigned
+     *
+     * @param zoneUID Zone ThingUID
+     * @return zone or null if unknown or not yet mapped to a thing
+     */
+    public RachioZone getZone(ThingUID zoneUID) {
+        if (zoneUID == null) {
+            return null;
+        }
+        RachioZone zone = zonesByThingId.get(zoneUID.getId());
+        return (zone != null) && zoneUID.equals(zone.getUID()) ? zone : null;
+    }
+
+    /**
+     * @param deviceId Rachio device id (case insensitive)
+     * @param zoneNumber Zone number (1..16)
+     * @return zone or null
+     */
+    public RachioZone getZone(String deviceId, int zoneNumber) {
+        Map<Integer, RachioZone> numbers = deviceId != null ? zonesByNumber.get(normalize(deviceId)) : null;
+        return numbers != null ? numbers.get(zoneNumber) : null;
+    }
+
+    /**
+     * @param zoneId Rachio zone id (case insensitive)
+     * @return device the zone belongs to or null
+     */
+    public RachioDevice getZoneOwner(String zoneId) {
+        return zoneId != null ? zoneOwners.get(normalize(zoneId)) : null;
+    }
+
+    private static String normalize(String key) {
+        return key != null ? key.toLowerCase(Locale.ROOT) : null;
+    }
+} // class
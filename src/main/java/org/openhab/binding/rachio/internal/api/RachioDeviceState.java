@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudNetworkSettings;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRule;
+
+/**
+ * The {@link RachioDeviceState} is an immutable snapshot of the changing attributes of a device: cloud data patched by
+ * a refresh, runtime settings of the thing, status reported by webhook events and the zone table. Each change creates
+ * a new snapshot with the next generation number, {@link RachioDevice} publishes it through an atomic reference.
+ * Readers get a consistent view without locking, even while polling and webhook processing run in parallel.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioDeviceState {
+    /**
+     * Zones of the device indexed by zone id and zone number
+     */
+    static class RachioZoneTable {
+        private final Map<String, RachioZone> byId;
+        private final RachioZone[] byNumber;
+
+        RachioZoneTable(Map<String, RachioZone> zones) {
+            int maxNumber = 0;
+            for (RachioZone zone : zones.values()) {
+                maxNumber = Math.max(maxNumber, zone.getZoneNumber());
+            }
+            byId = Collections.unmodifiableMap(new HashMap<>(zones));
+            byNumber = new RachioZone[maxNumber + 1];
+            for (RachioZone zone : zones.values()) {
+                if (zone.getZoneNumber() >= 0) {
+                    byNumber[zone.getZoneNumber()] = zone;
+                }
+            }
+        }
+
+        Map<String, RachioZone> getZones() {
+            return byId;
+        }
+
+        RachioZone getZone(int zoneNumber) {
+            return (zoneNumber >= 0) && (zoneNumber < byNumber.length) ? byNumber[zoneNumber] : null;
+        }
+
+        RachioZone getZone(String zoneId) {
+            return zoneId != null ? byId.get(zoneId) : null;
+        }
+
+        /**
+         * @return zones in zone number order
+         */
+        RachioZone[] getZonesByNumber() {
+            return byNumber.clone();
+        }
+    }
+
+    private long generation = 0;
+
+    // cloud attributes
+    private String status = "";
+    private boolean on = true;
+    private String name = "";
+    private String model = "";
+    private String serialNumber = "";
+    private double latitude = 0.0;
+    private double longitude = 0.0;
+    private long rainDelayExpirationDate = 0;
+    private String scheduleModeType = "";
+    private boolean cycleSoak = false;
+    private List<RachioCloudScheduleRule> scheduleRules = Collections.emptyList();
+    private List<RachioCloudScheduleRule> flexScheduleRules = Collections.emptyList();
+    private RachioZoneTable zoneTable = new RachioZoneTable(Collections.emptyMap());
+
+    // runtime settings and webhook data
+    private boolean paused = false;
+    private int rainDelay = 0;
+    private String runList = "";
+    private BitSet runZoneNumbers = null; // parsed runList, null=all zones, never modified
+    private int runTime = 0;
+    private String lastEvent = "";
+    private RachioCloudNetworkSettings network = null;
+    private String scheduleName = "";
+
+    /**
+     * Create the initial snapshot from the cloud data
+     *
+     * @param cdev Device data as received from the cloud
+     * @param network Initial network settings
+     */
+    RachioDeviceState(RachioCloudDevice cdev, RachioCloudNetworkSettings network) {
+        status = cdev.status;
+        on = cdev.on;
+        setCloudData(cdev);
+        this.network = network;
+    }
+
+    private RachioDeviceState(RachioDeviceState s) {
+        generation = s.generation + 1;
+        status = s.status;
+        on = s.on;
+        name = s.name;
+        model = s.model;
+        serialNumber = s.serialNumber;
+        latitude = s.latitude;
+        longitude = s.longitude;
+        rainDelayExpirationDate = s.rainDelayExpirationDate;
+        scheduleModeType = s.scheduleModeType;
+        cycleSoak = s.cycleSoak;
+        scheduleRules = s.scheduleRules;
+        flexScheduleRules = s.flexScheduleRules;
+        zoneTable = s.zoneTable;
+        paused = s.paused;
+        rainDelay = s.rainDelay;
+        runList = s.runList;
+        runZoneNumbers = s.runZoneNumbers;
+        runTime = s.runTime;
+        lastEvent = s.lastEvent;
+        network = s.network;
+        scheduleName = s.scheduleName;
+    }
+
+    private void setCloudData(RachioCloudDevice cdev) {
+        name = cdev.name;
+        model = cdev.model;
+        serialNumber = cdev.serialNumber;
+        latitude = cdev.latitude;
+        longitude = cdev.longitude;
+        rainDelayExpirationDate = cdev.rainDelayExpirationDate;
+        scheduleModeType = cdev.scheduleModeType;
+        cycleSoak = cdev.cycleSoak;
+        scheduleRules = Collections.unmodifiableList(new ArrayList<>(cdev.scheduleRules));
+        flexScheduleRules = Collections.unmodifiableList(new ArrayList<>(cdev.flexScheduleRules));
+    }
+
+    //
+    // ------ Deltas, each returns a new snapshot (or this one if nothing changed)
+    //
+
+    RachioDeviceState withCloudData(RachioCloudDevice cdev) {
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.status = cdev.status;
+        s.on = cdev.on;
+        s.setCloudData(cdev);
+        return s;
+    }
+
+    RachioDeviceState withStatus(String status, boolean on, boolean paused) {
+        if (this.status.equals(status) && (this.on == on) && (this.paused == paused)) {
+            return this;
+        }
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.status = status;
+        s.on = on;
+        s.paused = paused;
+        return s;
+    }
+
+    RachioDeviceState withZoneTable(RachioZoneTable zoneTable) {
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.zoneTable = zoneTable;
+        return s;
+    }
+
+    RachioDeviceState withRainDelay(int rainDelay) {
+        if (this.rainDelay == rainDelay) {
+            return this;
+        }
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.rainDelay = rainDelay;
+        return s;
+    }
+
+    RachioDeviceState withRunZones(String runList, BitSet runZoneNumbers) {
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.runList = runList;
+        s.runZoneNumbers = runZoneNumbers;
+        return s;
+    }
+
+    RachioDeviceState withRunTime(int runTime) {
+        if (this.runTime == runTime) {
+            return this;
+        }
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.runTime = runTime;
+        return s;
+    }
+
+    RachioDeviceState withEvent(String lastEvent) {
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.lastEvent = lastEvent;
+        return s;
+    }
+
+    RachioDeviceState withScheduleName(String scheduleName) {
+        if (this.scheduleName.equals(scheduleName)) {
+            return this;
+        }
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.scheduleName = scheduleName;
+        return s;
+    }
+
+    RachioDeviceState withNetwork(RachioCloudNetworkSettings network) {
+        RachioDeviceState s = new RachioDeviceState(this);
+        s.network = network;
+        return s;
+    }
+
+    //
+    // ------ Getters
+    //
+
+    /**
+     * @return Snapshot number, incremented with every change of the device
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public long getRainDelayExpirationDate() {
+        return rainDelayExpirationDate;
+    }
+
+    public String getScheduleModeType() {
+        return scheduleModeType;
+    }
+
+    public boolean isCycleSoak() {
+        return cycleSoak;
+    }
+
+    public List<RachioCloudScheduleRule> getScheduleRules() {
+        return scheduleRules;
+    }
+
+    public List<RachioCloudScheduleRule> getFlexScheduleRules() {
+        return flexScheduleRules;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public int getRainDelay() {
+        return rainDelay;
+    }
+
+    public String getRunList() {
+        return runList;
+    }
+
+    /**
+     * @param zoneNumber Zone number
+     * @return true if the zone is included in the run list
+     */
+    public boolean isRunZone(int zoneNumber) {
+        return (runZoneNumbers == null) || ((zoneNumber >= 0) && runZoneNumbers.get(zoneNumber));
+    }
+
+    /**
+     * @return true if all zones should be started
+     */
+    public boolean isRunAllZones() {
+        return runZoneNumbers == null;
+    }
+
+    public int getRunTime() {
+        return runTime;
+    }
+
+    public String getLastEvent() {
+        return lastEvent;
+    }
+
+    public RachioCloudNetworkSettings getNetwork() {
+        return network;
+    }
+
+    public String getScheduleName() {
+        return scheduleName;
+    }
+
+    RachioZoneTable getZoneTable() {
+        return zoneTable;
+    }
+} // class
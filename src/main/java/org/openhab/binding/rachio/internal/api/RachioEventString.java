@@ -68,7 +68,7 @@ public class RachioEventString {
 
     private genericEvent gEvent;
     private zoneEvent zEvent;
-    private Gson gson = new Gson();
+    private static final Gson gson = RachioJson.gson;
 
     public RachioEventString(RachioEvent event) {
         if (event.type.equals("ZONE_STATUS")) {
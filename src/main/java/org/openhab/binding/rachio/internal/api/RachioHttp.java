@@ -14,16 +14,33 @@ package org.openhab.binding.rachio.internal.api;
 import static java.net.HttpURLConnection.*;
 import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter.RachioApiPriority;
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 
 /**
  * The {@link RachioHttp} class contains static methods for communicating HTTP GET
@@ -34,9 +51,15 @@ import org.slf4j.LoggerFactory;;
  */
 public class RachioHttp {
     private final Logger logger = LoggerFactory.getLogger(RachioHttp.class);
+    private static final Gson gson = RachioJson.gson;
+    private static final ConcurrentHashMap<String, CompletableFuture<RachioApiResult>> inFlightGets = //
+            new ConcurrentHashMap<>();
 
-    private int apiCalls = 0;
+    private final AtomicInteger apiCalls = new AtomicInteger();
     private String apikey = "";
+    private final RachioHttpPool httpPool;
+    private final RachioRateLimiter rateLimiter;
+    private final RachioMetrics metrics;
 
     /**
      * Constructor for the Rachio API class to create a connection to the Rachio cloud service.
@@ -45,7 +68,21 @@ public class RachioHttp {
      * @throws Exception
      */
     public RachioHttp(final String key) throws RachioApiException {
+        this(key, new RachioHttpPool());
+    }
+
+    /**
+     * Constructor for the Rachio API class using a shared connection pool
+     *
+     * @param key Rachio API Access token (see Web UI)
+     * @param pool Connection pool shared by all api instances of the bridge
+     * @throws Exception
+     */
+    public RachioHttp(final String key, final RachioHttpPool pool) throws RachioApiException {
         apikey = key;
+        httpPool = pool;
+        rateLimiter = RachioRateLimiter.getInstance(key);
+        metrics = RachioMetrics.getInstance(key);
     }
 
     /**
@@ -57,31 +94,99 @@ public class RachioHttp {
      * @throws Exception
      */
     public RachioApiResult httpGet(String url, String urlParameters) throws RachioApiException {
-        return httpRequest(HTTP_METHOD_GET, url, urlParameters, null);
+        return httpGet(url, urlParameters, null, RachioApiPriority.POLL);
+    }
+
+    /**
+     * Send a HTTP GET request and decode the JSON response directly from the response stream. The raw response is
+     * only buffered as a String if TRACE logging is enabled.
+     *
+     * @param url The URL to send a GET request to.
+     * @param urlParameters List of parameters to use in the URL for the GET request. Null if no parameters.
+     * @param resultType Type of the decoded object, available as result.resultObject
+     * @return RachioApiResult including the decoded object, http code etc.
+     * @throws Exception
+     */
+    public RachioApiResult httpGet(String url, String urlParameters, Type resultType) throws RachioApiException {
+        return httpGet(url, urlParameters, resultType, RachioApiPriority.POLL);
+    }
+
+    /**
+     * Send a HTTP GET request with the given priority, see httpGet(url, urlParameters, resultType).
+     *
+     * Identical GETs (same apikey, url and result type) which are issued while the first one is still in flight
+     * don't create a new request, they wait for the pending one and share its result. The result (including the
+     * decoded object) must be treated as read-only by the caller.
+     *
+     * @param priority Priority used to check the api call budget
+     */
+    public RachioApiResult httpGet(String url, String urlParameters, Type resultType, RachioApiPriority priority)
+            throws RachioApiException {
+        String key = apikey + " " + url + (urlParameters != null ? "?" + urlParameters : "") + " "
+                + (resultType != null ? resultType.getTypeName() : "");
+        CompletableFuture<RachioApiResult> flight = new CompletableFuture<>();
+        CompletableFuture<RachioApiResult> pending = inFlightGets.putIfAbsent(key, flight);
+        if (pending != null) {
+            logger.trace("RachioHttp: Join pending request GET '{}'", url);
+            return awaitResult(pending);
+        }
+
+        try {
+            RachioApiResult result = httpRequest(HTTP_METHOD_GET, url, urlParameters, null, resultType, priority);
+            flight.complete(result);
+            return result;
+        } catch (RachioApiException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightGets.remove(key, flight);
+        }
+    }
+
+    private RachioApiResult awaitResult(CompletableFuture<RachioApiResult> pending) throws RachioApiException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RachioApiException("RachioHttp: Interrupted while waiting for pending request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RachioApiException) {
+                throw (RachioApiException) cause;
+            }
+            throw new RachioApiException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * A modifying request makes pending GETs of the same account stale, later GETs must not join them
+     */
+    private void detachPendingGets() {
+        inFlightGets.keySet().removeIf(k -> k.startsWith(apikey + " "));
     }
 
     /**
      * Given a URL and a set parameters, send a HTTP POST request to the URL location created by the URL and parameters.
      *
      * @param url The URL to send a POST request to.
-     * @param urlParameters List of parameters to use in the URL for the POST request. Null if no parameters.
+     * @param command Command, which is sent as request body
      * @return RachioApiResult including GET response, http code etc.
      * @throws Exception
      */
-    public RachioApiResult httpPut(String url, String putData) throws RachioApiException {
-        return httpRequest(HTTP_METHOD_PUT, url, null, putData);
+    public RachioApiResult httpPut(String url, RachioCommand command) throws RachioApiException {
+        return httpRequest(HTTP_METHOD_PUT, url, null, command, null, RachioApiPriority.COMMAND);
     }
 
     /**
      * Given a URL and a set parameters, send a HTTP POST request to the URL location created by the URL and parameters.
      *
      * @param url The URL to send a POST request to.
-     * @param postData List of parameters to use in the URL for the POST request. Null if no parameters.
+     * @param command Command, which is sent as request body
      * @return RachioApiResult including GET response, http code etc.
      * @throws Exception
      */
-    public RachioApiResult httpPost(String url, String postData) throws RachioApiException {
-        return httpRequest(HTTP_METHOD_POST, url, null, postData);
+    public RachioApiResult httpPost(String url, RachioCommand command) throws RachioApiException {
+        return httpRequest(HTTP_METHOD_POST, url, null, command, null, RachioApiPriority.BACKGROUND);
     }
 
     /**
@@ -93,7 +198,7 @@ public class RachioHttp {
      * @throws Exception if something went wrong (e.g. unable to connect)
      */
     public RachioApiResult httpDelete(String url, String urlParameters) throws RachioApiException {
-        return httpRequest(HTTP_METHOD_DELETE, url, urlParameters, null);
+        return httpRequest(HTTP_METHOD_DELETE, url, urlParameters, null, null, RachioApiPriority.BACKGROUND);
     }
 
     /**
@@ -101,17 +206,87 @@ public class RachioHttp {
      *
      * @param url The URL to send a GET request to.
      * @param urlParameters List of parameters to use in the URL for the GET request. Null if no parameters.
+     * @param resultType null: return response as resultString, otherwise decode JSON into resultObject
+     * @param priority User commands get budget reserved, polling and background calls are spread over the day
      * @return RachioApiResult including GET response, http code etc.
      * @throws Exception
      */
-    protected RachioApiResult httpRequest(String method, String url, String urlParameters, String reqDatas)
-            throws RachioApiException {
+    protected RachioApiResult httpRequest(String method, String url, String urlParameters, RachioCommand command,
+            Type resultType, RachioApiPriority priority) throws RachioApiException {
+        long deadline = System.currentTimeMillis() + DEFAULT_HTTP_TOTAL_TIMEOUT;
+        RachioCircuitBreaker breaker = getCircuitBreaker(url);
+        if (!breaker.allowRequest()) {
+            String message = MessageFormat.format("RachioHttp: {0} not available ({1}), retry after {2}",
+                    breaker.getEndpoint(), breaker.getLastError(), Instant.ofEpochMilli(breaker.getOpenUntil()));
+            throw new RachioApiException(message);
+        }
+
+        int attempt = 0;
+        while (true) {
+            try {
+                RachioApiResult result = sendRequest(method, url, urlParameters, command, resultType, priority,
+                        deadline);
+                breaker.recordSuccess();
+                return result;
+            } catch (RachioApiException e) {
+                if (!isTransientError(e)) {
+                    // e.g. 4xx, rate limit or a response, which couldn't be decoded
+                    breaker.recordNonTransientFailure(e.getMessage(), e.getApiResult().responseCode > 0);
+                    throw e;
+                }
+                breaker.recordFailure(e.getMessage());
+
+                // only idempotent requests are repeated
+                long backoff = (long) (Math.random() * (RACHIO_HTTP_RETRY_BASE_MS << (attempt + 1)));
+                if (!method.equals(HTTP_METHOD_GET) || (attempt >= RACHIO_HTTP_MAX_RETRIES)
+                        || (System.currentTimeMillis() + backoff >= deadline) || !breaker.allowRequest()) {
+                    throw e;
+                }
+                attempt++;
+                logger.debug("RachioHttp: {} {} failed ({}), retry #{} in {}ms", method, url, e.getMessage(), attempt,
+                        backoff);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Timeouts, connection errors and server errors (5xx) are considered as transient
+     */
+    private boolean isTransientError(RachioApiException e) {
+        Integer responseCode = e.getApiResult().responseCode;
+        return ((responseCode != null) && (responseCode >= HTTP_INTERNAL_ERROR))
+                || (e.getCause() instanceof IOException);
+    }
+
+    private RachioCircuitBreaker getCircuitBreaker(String url) throws RachioApiException {
+        try {
+            return RachioCircuitBreaker.getInstance(apikey, new URL(url));
+        } catch (MalformedURLException e) {
+            throw new RachioApiException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send a single request, the connect and read timeouts are capped by the request deadline
+     */
+    private RachioApiResult sendRequest(String method, String url, String urlParameters, RachioCommand command,
+            Type resultType, RachioApiPriority priority, long deadline) throws RachioApiException {
 
         RachioApiResult result = new RachioApiResult();
+        HttpURLConnection request = null;
+        URL location = null;
+        CountingInputStream responseStream = null;
+        boolean success = false;
+        long started = 0;
         try {
-            apiCalls++;
+            int callNumber = apiCalls.incrementAndGet();
 
-            URL location = null;
             if (urlParameters != null) {
                 location = new URL(url + "?" + urlParameters);
             } else {
@@ -119,38 +294,54 @@ public class RachioHttp {
             }
             result.requestMethod = method;
             result.url = location.toString();
-            result.apiCalls = apiCalls;
+            result.apiCalls = callNumber;
+            if (!rateLimiter.tryAcquire(priority)) {
+                result.setRateLimit(rateLimiter.getLimit(), rateLimiter.getRemaining(), "");
+                String message = MessageFormat.format(
+                        "RachioHttp: API call budget exhausted, {0} request skipped ({1} of {2} remaining)", priority,
+                        rateLimiter.getRemaining(), rateLimiter.getLimit());
+                throw new RachioApiException(message, result);
+            }
+
+            if (!method.equals(HTTP_METHOD_GET)) {
+                detachPendingGets();
+            }
 
-            HttpURLConnection request = (HttpURLConnection) location.openConnection();
+            started = System.nanoTime();
+            request = httpPool.open(location);
+            int remaining = (int) Math.max(deadline - System.currentTimeMillis(), 1);
+            request.setConnectTimeout(Math.min(request.getConnectTimeout(), remaining));
+            request.setReadTimeout(Math.min(request.getReadTimeout(), remaining));
             if (apikey != null) {
                 request.setRequestProperty("Authorization", "Bearer " + apikey);
                 result.apikey = apikey;
             }
             request.setRequestMethod(method);
-            request.setConnectTimeout(15000); // set timeout to 15 seconds
             request.setRequestProperty("User-Agent", SERVLET_WEBHOOK_USER_AGENT);
             request.setRequestProperty("Content-Type", SERVLET_WEBHOOK_APPLICATION_JSON);
-            logger.trace("RachioHttp[Call #{}]: Call Rachio cloud service: {} '{}')", apiCalls,
+            logger.trace("RachioHttp[Call #{}]: Call Rachio cloud service: {} '{}')", callNumber,
                     request.getRequestMethod(), result.url);
-            if (method.equals(HTTP_METHOD_PUT) || method.equals(HTTP_METHOD_POST)) {
+            if ((command != null) && (method.equals(HTTP_METHOD_PUT) || method.equals(HTTP_METHOD_POST))) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("RachioHttp[Call #{}]: Request data: {}", callNumber, command.toJson());
+                }
                 request.setDoOutput(true);
-                DataOutputStream wr = new DataOutputStream(request.getOutputStream());
-                wr.writeBytes(reqDatas);
-                wr.flush();
-                wr.close();
+                try (OutputStream out = request.getOutputStream()) {
+                    command.writeTo(out);
+                }
             }
-            BufferedReader in = new BufferedReader(new InputStreamReader(request.getInputStream()));
-            StringBuilder response = new StringBuilder();
 
             result.responseCode = request.getResponseCode();
             if (request.getHeaderField(RACHIO_JSON_RATE_LIMIT) != null) {
                 result.setRateLimit(request.getHeaderField(RACHIO_JSON_RATE_LIMIT),
                         request.getHeaderField(RACHIO_JSON_RATE_REMAINING),
                         request.getHeaderField(RACHIO_JSON_RATE_RESET));
+                rateLimiter.update(result.rateLimit, result.rateRemaining, result.rateReset);
+                metrics.updateRateLimit(result.rateLimit, result.rateRemaining);
                 if (result.isRateLimitBlocked()) {
-                    String message = MessageFormat.format("RachioHttp: Critcal API rate limit: {0} / {1}, reset at {2}",
-                            result.rateRemaining, result.rateLimit, result.rateReset);
-                    throw new RachioApiException(message, result);
+                    // the cloud executed this request, the rate limiter rejects the following ones
+                    logger.warn("RachioHttp: Critical API rate limit: {} / {}, reset at {}", result.rateRemaining,
+                            result.rateLimit, result.rateReset);
                 }
             }
 
@@ -158,24 +349,87 @@ public class RachioHttp {
                     && ((result.responseCode != HTTP_NO_CONTENT) || (!result.requestMethod.equals(HTTP_METHOD_PUT)
                             && !result.requestMethod.equals(HTTP_METHOD_DELETE)))) {
                 String message = MessageFormat.format(
-                        "RachioHttp: Error sending HTTP {0} request to {2} - http response code={2}",
+                        "RachioHttp: Error sending HTTP {0} request to {1} - http response code={2}",
                         request.getRequestMethod(), url, result.responseCode);
                 throw new RachioApiException(message, result);
             }
 
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
-            }
-            in.close();
+            responseStream = new CountingInputStream(request.getInputStream());
+            try (Reader in = new InputStreamReader(responseStream, StandardCharsets.UTF_8)) {
+                if ((resultType != null) && !logger.isTraceEnabled()) {
+                    // decode directly from the stream, the raw response is never materialized
+                    result.resultObject = gson.fromJson(new JsonReader(in), resultType);
+                    success = true;
+                    return result;
+                }
 
-            result.resultString = response.toString();
-            logger.trace("RachioHttp: {} {} - Response='{}'", request.getRequestMethod(), url, result.resultString);
+                StringBuilder response = new StringBuilder();
+                char[] buffer = new char[4096];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    response.append(buffer, 0, len);
+                }
+                result.resultString = response.toString();
+            }
+            logger.trace("RachioHttp: {} {} - Response='{}'", request.getRequestMethod(), url, result.resultString);
+            if (resultType != null) {
+                result.resultObject = gson.fromJson(result.resultString, resultType);
+            }
 
+            success = true;
             return result;
+        } catch (RachioApiException e) {
+            throw e;
+        } catch (JsonParseException e) {
+            // Gson wraps an IOException of the streaming decode (e.g. a read timeout) as JsonIOException or
+            // JsonSyntaxException, pass it on as cause so the request is handled as transient failure
+            Throwable cause = e.getCause();
+            if ((cause instanceof IOException) && !(cause instanceof MalformedJsonException)) {
+                throw new RachioApiException(cause.toString(), result, cause);
+            }
+            throw new RachioApiException(e.toString(), result, e);
         } catch (Throwable e) {
             throw new RachioApiException(e.toString(), result, e);
+        } finally {
+            if (request != null) {
+                long bytes = responseStream != null ? responseStream.getCount() : 0;
+                metrics.record(method, location, result.responseCode != null ? result.responseCode : 0, success,
+                        (System.nanoTime() - started) / 1000000, bytes);
+                httpPool.release(request);
+            }
         }
     }
 
+    /**
+     * Counts the bytes read from the response stream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 } // class
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioHttpPool} is the transport shared by all {@link RachioHttp} instances of a bridge. It bounds the
+ * number of concurrent connections per host, applies the connect/read timeouts and makes sure that every response
+ * stream is drained and closed, so the JVM's keep-alive cache can re-use the TLS connection for the next call instead
+ * of doing a new handshake with the Rachio cloud.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioHttpPool {
+    private final Logger logger = LoggerFactory.getLogger(RachioHttpPool.class);
+
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private final int maxConnections;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public RachioHttpPool() {
+        this(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_READ_TIMEOUT, DEFAULT_HTTP_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Create a new connection pool
+     *
+     * @param connectTimeout Connect timeout in ms
+     * @param readTimeout Read timeout in ms
+     * @param maxConnections Max number of concurrent connections per host
+     */
+    public RachioHttpPool(int connectTimeout, int readTimeout, int maxConnections) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnections = maxConnections > 0 ? maxConnections : DEFAULT_HTTP_MAX_CONNECTIONS;
+        logger.debug("RachioHttpPool: connectTimeout={}ms, readTimeout={}ms, maxConnections={}", connectTimeout,
+                readTimeout, this.maxConnections);
+    }
+
+    /**
+     * Open a connection to the given location. The caller must return the connection by calling release() once the
+     * response has been consumed.
+     *
+     * @param location Request URL
+     * @return HttpURLConnection with timeouts and keep-alive set
+     * @throws IOException, RachioApiException when no connection becomes available within the connect timeout
+     */
+    public HttpURLConnection open(URL location) throws IOException, RachioApiException {
+        Semaphore permits = hostPermits.computeIfAbsent(location.getHost(), h -> new Semaphore(maxConnections, true));
+        try {
+            if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                throw new RachioApiException(MessageFormat
+                        .format("RachioHttpPool: No connection to {0} available within {1}ms", location.getHost(),
+                                connectTimeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RachioApiException("RachioHttpPool: Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            HttpURLConnection request = (HttpURLConnection) location.openConnection();
+            request.setConnectTimeout(connectTimeout);
+            request.setReadTimeout(readTimeout);
+            request.setUseCaches(false);
+            request.setRequestProperty("Connection", "keep-alive");
+            return request;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the connection to the pool. A pending error stream is skipped and closed (the connection is not
+     * disconnected), which leaves the socket in the keep-alive cache.
+     *
+     * @param request Connection as returned by open()
+     */
+    public void release(HttpURLConnection request) {
+        try {
+            drain(request.getErrorStream());
+        } catch (RuntimeException e) {
+            logger.trace("RachioHttpPool: Unable to drain error stream: {}", e.getMessage());
+        } finally {
+            Semaphore permits = hostPermits.get(request.getURL().getHost());
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Read remaining data from the stream and close it
+     *
+     * @param stream Input or error stream, may be null
+     */
+    public static void drain(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[512];
+            while (stream.read(buffer) > 0) {
+                // skip
+            }
+        } catch (IOException e) {
+            // ignore, connection will not be re-used
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Update the timeouts, e.g. after the thing configuration has been changed. Applies to new connections.
+     *
+     * @param connectTimeout Connect timeout in ms
+     * @param readTimeout Read timeout in ms
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+} // class
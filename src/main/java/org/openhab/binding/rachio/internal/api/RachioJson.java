@@ -0,0 +1,736 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioCloudPersonId;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioCloudStatus;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudNetworkSettings;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRule;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRuleZone;
+import org.openhab.binding.rachio.internal.api.RachioEvent.RachioEventProperty;
+import org.openhab.binding.rachio.internal.api.RachioEvent.RachioZoneStatus;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link RachioJson} provides the Gson instance shared by the binding. The cloud models (device, zone) and the
+ * webhook event are decoded by hand written streaming readers: fields are matched by name, unknown fields are skipped
+ * without building a tree and the inner model classes are created directly instead of through reflection. A JSON null
+ * keeps the field's default value. Serialization uses Gson's reflective adapters.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioJson {
+    public static final Gson gson = new GsonBuilder().registerTypeAdapterFactory(new RachioModelAdapterFactory())
+            .create();
+
+    @FunctionalInterface
+    private interface RachioJsonReader<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    private static class RachioModelAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            RachioJsonReader<?> reader;
+            Class<? super T> rawType = type.getRawType();
+            if (rawType == RachioCloudStatus.class) {
+                reader = RachioJson::readPerson;
+            } else if (rawType == RachioCloudPersonId.class) {
+                reader = RachioJson::readPersonId;
+            } else if (rawType == RachioCloudDevice.class) {
+                reader = RachioJson::readDevice;
+            } else if (rawType == RachioCloudZone.class) {
+                reader = RachioJson::readZone;
+            } else if (rawType == RachioEvent.class) {
+                reader = RachioJson::readEvent;
+            } else {
+                return null;
+            }
+
+            TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+            return new TypeAdapter<T>() {
+                @Override
+                public void write(JsonWriter out, T value) throws IOException {
+                    delegate.write(out, value);
+                }
+
+                @Override
+                public T read(JsonReader in) throws IOException {
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        return null;
+                    }
+                    return (T) reader.read(in);
+                }
+            };
+        }
+    }
+
+    private RachioJson() {
+    }
+
+    //
+    // ------ Cloud models
+    //
+
+    static RachioCloudPersonId readPersonId(JsonReader in) throws IOException {
+        RachioCloudPersonId pid = new RachioCloudPersonId();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("id")) {
+                pid.id = readString(in, pid.id);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return pid;
+    }
+
+    static RachioCloudStatus readPerson(JsonReader in) throws IOException {
+        RachioCloudStatus person = new RachioCloudStatus();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "createDate":
+                    person.createDate = readLong(in, person.createDate);
+                    break;
+                case "id":
+                    person.id = readString(in, person.id);
+                    break;
+                case "username":
+                    person.username = readString(in, person.username);
+                    break;
+                case "fullName":
+                    person.fullName = readString(in, person.fullName);
+                    break;
+                case "email":
+                    person.email = readString(in, person.email);
+                    break;
+                case "devices":
+                    person.devices = readList(in, person.devices, RachioJson::readDevice);
+                    break;
+                case "deleted":
+                    person.deleted = readBoolean(in, person.deleted);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return person;
+    }
+
+    static RachioCloudDevice readDevice(JsonReader in) throws IOException {
+        RachioCloudDevice dev = new RachioCloudDevice();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "createDate":
+                    dev.createDate = readLong(in, dev.createDate);
+                    break;
+                case "id":
+                    dev.id = readString(in, dev.id);
+                    break;
+                case "status":
+                    dev.status = readString(in, dev.status);
+                    break;
+                case "zones":
+                    dev.zones = readList(in, dev.zones, RachioJson::readZone);
+                    break;
+                case "latitude":
+                    dev.latitude = readDouble(in, dev.latitude);
+                    break;
+                case "longitude":
+                    dev.longitude = readDouble(in, dev.longitude);
+                    break;
+                case "name":
+                    dev.name = readString(in, dev.name);
+                    break;
+                case "scheduleRules":
+                    dev.scheduleRules = readList(in, dev.scheduleRules, r -> readScheduleRule(r, dev));
+                    break;
+                case "cycleSoak":
+                    dev.cycleSoak = readBoolean(in, dev.cycleSoak);
+                    break;
+                case "serialNumber":
+                    dev.serialNumber = readString(in, dev.serialNumber);
+                    break;
+                case "rainDelayExpirationDate":
+                    dev.rainDelayExpirationDate = readLong(in, dev.rainDelayExpirationDate);
+                    break;
+                case "macAddress":
+                    dev.macAddress = readString(in, dev.macAddress);
+                    break;
+                case "on":
+                    dev.on = readBoolean(in, dev.on);
+                    break;
+                case "flexScheduleRules":
+                    dev.flexScheduleRules = readList(in, dev.flexScheduleRules, r -> readScheduleRule(r, dev));
+                    break;
+                case "model":
+                    dev.model = readString(in, dev.model);
+                    break;
+                case "scheduleModeType":
+                    dev.scheduleModeType = readString(in, dev.scheduleModeType);
+                    break;
+                case "deleted":
+                    dev.deleted = readBoolean(in, dev.deleted);
+                    break;
+                case "homeKitCompatible":
+                    dev.homeKitCompatible = readBoolean(in, dev.homeKitCompatible);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dev;
+    }
+
+    static RachioCloudZone readZone(JsonReader in) throws IOException {
+        RachioCloudZone zone = new RachioCloudZone();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    zone.id = readString(in, zone.id);
+                    break;
+                case "zoneNumber":
+                    zone.zoneNumber = readInt(in, zone.zoneNumber);
+                    break;
+                case "name":
+                    zone.name = readString(in, zone.name);
+                    break;
+                case "enabled":
+                    zone.enabled = readBoolean(in, zone.enabled);
+                    break;
+                case "availableWater":
+                    zone.availableWater = readDouble(in, zone.availableWater);
+                    break;
+                case "rootZoneDepth":
+                    zone.rootZoneDepth = readDouble(in, zone.rootZoneDepth);
+                    break;
+                case "managementAllowedDepletion":
+                    zone.managementAllowedDepletion = readDouble(in, zone.managementAllowedDepletion);
+                    break;
+                case "efficiency":
+                    zone.efficiency = readDouble(in, zone.efficiency);
+                    break;
+                case "yardAreaSquareFeet":
+                    zone.yardAreaSquareFeet = readInt(in, zone.yardAreaSquareFeet);
+                    break;
+                case "imageUrl":
+                    zone.imageUrl = readString(in, zone.imageUrl);
+                    break;
+                case "lastWateredDate":
+                    zone.lastWateredDate = readLong(in, zone.lastWateredDate);
+                    break;
+                case "scheduleDataModified":
+                    zone.scheduleDataModified = readBoolean(in, zone.scheduleDataModified);
+                    break;
+                case "fixedRuntime":
+                    zone.fixedRuntime = readInt(in, zone.fixedRuntime);
+                    break;
+                case "saturatedDepthOfWater":
+                    zone.saturatedDepthOfWater = readDouble(in, zone.saturatedDepthOfWater);
+                    break;
+                case "depthOfWater":
+                    zone.depthOfWater = readDouble(in, zone.depthOfWater);
+                    break;
+                case "maxRuntime":
+                    zone.maxRuntime = readInt(in, zone.maxRuntime);
+                    break;
+                case "runtimeNoMultiplier":
+                    zone.runtimeNoMultiplier = readInt(in, zone.runtimeNoMultiplier);
+                    break;
+                case "runtime":
+                    zone.runtime = readInt(in, zone.runtime);
+                    break;
+                default:
+                    in.skipValue(); // customNozzle, customSoil, wateringAdjustmentRuntimes...
+            }
+        }
+        in.endObject();
+        return zone;
+    }
+
+    private static RachioCloudScheduleRule readScheduleRule(JsonReader in, RachioCloudDevice dev) throws IOException {
+        RachioCloudScheduleRule rule = dev.new RachioCloudScheduleRule();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    rule.id = readString(in, rule.id);
+                    break;
+                case "zones":
+                    rule.zones = readList(in, rule.zones, r -> readScheduleRuleZone(r, dev));
+                    break;
+                case "scheduleJobTypes":
+                    rule.scheduleJobTypes = readList(in, rule.scheduleJobTypes, r -> readString(r, null));
+                    break;
+                case "startHour":
+                    rule.startHour = readInt(in, rule.startHour);
+                    break;
+                case "startMinute":
+                    rule.startMinute = readInt(in, rule.startMinute);
+                    break;
+                case "operator":
+                    rule.operator = readString(in, rule.operator);
+                    break;
+                case "cycleSoakStatus":
+                    rule.cycleSoakStatus = readString(in, rule.cycleSoakStatus);
+                    break;
+                case "startDate":
+                    rule.startDate = readLong(in, rule.startDate);
+                    break;
+                case "name":
+                    rule.name = readString(in, rule.name);
+                    break;
+                case "enabled":
+                    rule.enabled = readBoolean(in, rule.enabled);
+                    break;
+                case "startDay":
+                    rule.startDay = readInt(in, rule.startDay);
+                    break;
+                case "startMonth":
+                    rule.startMonth = readInt(in, rule.startMonth);
+                    break;
+                case "startYear":
+                    rule.startYear = readInt(in, rule.startYear);
+                    break;
+                case "totalDuration":
+                    rule.totalDuration = readInt(in, rule.totalDuration);
+                    break;
+                case "endDate":
+                    rule.endDate = readLong(in, rule.endDate);
+                    break;
+                case "etSkip":
+                    rule.etSkip = readBoolean(in, rule.etSkip);
+                    break;
+                case "externalName":
+                    rule.externalName = readString(in, rule.externalName);
+                    break;
+                case "type":
+                    rule.type = readString(in, rule.type);
+                    break;
+                case "cycleSoak":
+                    rule.cycleSoak = readBoolean(in, rule.cycleSoak);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return rule;
+    }
+
+    private static RachioCloudScheduleRuleZone readScheduleRuleZone(JsonReader in, RachioCloudDevice dev)
+            throws IOException {
+        RachioCloudScheduleRuleZone ruleZone = dev.new RachioCloudScheduleRuleZone();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "zoneId":
+                    ruleZone.zoneId = readString(in, ruleZone.zoneId);
+                    break;
+                case "duration":
+                    ruleZone.duration = readInt(in, ruleZone.duration);
+                    break;
+                case "sortOrder":
+                    ruleZone.sortOrder = readInt(in, ruleZone.sortOrder);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return ruleZone;
+    }
+
+    //
+    // ------ WebHook event
+    //
+
+    static RachioEvent readEvent(JsonReader in) throws IOException {
+        RachioEvent event = new RachioEvent();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "externalId":
+                    event.externalId = readString(in, event.externalId);
+                    break;
+                case "routingId":
+                    event.routingId = readString(in, event.routingId);
+                    break;
+                case "connectId":
+                    event.connectId = readString(in, event.connectId);
+                    break;
+                case "correlationId":
+                    event.correlationId = readString(in, event.correlationId);
+                    break;
+                case "scheduleId":
+                    event.scheduleId = readString(in, event.scheduleId);
+                    break;
+                case "deviceId":
+                    event.deviceId = readString(in, event.deviceId);
+                    break;
+                case "zoneId":
+                    event.zoneId = readString(in, event.zoneId);
+                    break;
+                case "id":
+                    event.id = readString(in, event.id);
+                    break;
+                case "timeZone":
+                    event.timeZone = readString(in, event.timeZone);
+                    break;
+                case "timestamp":
+                    event.timestamp = readString(in, event.timestamp);
+                    break;
+                case "timeForSummary":
+                    event.timeForSummary = readString(in, event.timeForSummary);
+                    break;
+                case "startTime":
+                    event.startTime = readString(in, event.startTime);
+                    break;
+                case "endTime":
+                    event.endTime = readString(in, event.endTime);
+                    break;
+                case "eventDate":
+                    event.eventDate = readLong(in, event.eventDate);
+                    break;
+                case "createDate":
+                    event.createDate = readLong(in, event.createDate);
+                    break;
+                case "lastUpdateDate":
+                    event.lastUpdateDate = readLong(in, event.lastUpdateDate);
+                    break;
+                case "sequence":
+                    event.sequence = readInt(in, event.sequence);
+                    break;
+                case "status":
+                    event.status = readString(in, event.status);
+                    break;
+                case "type":
+                    event.type = readString(in, event.type);
+                    break;
+                case "subType":
+                    event.subType = readString(in, event.subType);
+                    break;
+                case "eventType":
+                    event.eventType = readString(in, event.eventType);
+                    break;
+                case "category":
+                    event.category = readString(in, event.category);
+                    break;
+                case "topic":
+                    event.topic = readString(in, event.topic);
+                    break;
+                case "action":
+                    event.action = readString(in, event.action);
+                    break;
+                case "summary":
+                    event.summary = readString(in, event.summary);
+                    break;
+                case "description":
+                    event.description = readString(in, event.description);
+                    break;
+                case "title":
+                    event.title = readString(in, event.title);
+                    break;
+                case "pushTitle":
+                    event.pushTitle = readString(in, event.pushTitle);
+                    break;
+                case "icon":
+                    event.icon = readString(in, event.icon);
+                    break;
+                case "iconUrl":
+                    event.iconUrl = readString(in, event.iconUrl);
+                    break;
+                case "zoneNumber":
+                    event.zoneNumber = readInt(in, event.zoneNumber);
+                    break;
+                case "zoneName":
+                    event.zoneName = readString(in, event.zoneName);
+                    break;
+                case "zoneCurrent":
+                    event.zoneCurrent = readInt(in, event.zoneCurrent);
+                    break;
+                case "zoneRunState":
+                    event.zoneRunState = readString(in, event.zoneRunState);
+                    break;
+                case "duration":
+                    event.duration = readInt(in, event.duration);
+                    break;
+                case "durationInMinutes":
+                    event.durationInMinutes = readInt(in, event.durationInMinutes);
+                    break;
+                case "flowVolume":
+                    event.flowVolume = readInt(in, event.flowVolume);
+                    break;
+                case "zoneRunStatus":
+                    event.zoneRunStatus = readObject(in, r -> readZoneStatus(r, event), event.zoneRunStatus);
+                    break;
+                case "scheduleName":
+                    event.scheduleName = readString(in, event.scheduleName);
+                    break;
+                case "scheduleType":
+                    event.scheduleType = readString(in, event.scheduleType);
+                    break;
+                case "deviceName":
+                    event.deviceName = readString(in, event.deviceName);
+                    break;
+                case "network":
+                    event.network = readObject(in, RachioJson::readNetworkSettings, event.network);
+                    break;
+                case "pin":
+                    event.pin = readString(in, event.pin);
+                    break;
+                case "eventParms":
+                    event.eventParms = readObject(in, RachioJson::readStringMap, event.eventParms);
+                    break;
+                case "deltaProperties":
+                    event.deltaProperties = readObject(in, r -> readDeltaProperties(r, event),
+                            event.deltaProperties);
+                    break;
+                default:
+                    in.skipValue(); // apiResult is local only
+            }
+        }
+        in.endObject();
+        return event;
+    }
+
+    private static RachioZoneStatus readZoneStatus(JsonReader in, RachioEvent event) throws IOException {
+        RachioZoneStatus status = event.new RachioZoneStatus();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "duration":
+                    status.duration = readInt(in, status.duration);
+                    break;
+                case "scheduleType":
+                    status.scheduleType = readString(in, status.scheduleType);
+                    break;
+                case "zoneNumber":
+                    status.zoneNumber = readInt(in, status.zoneNumber);
+                    break;
+                case "executionType":
+                    status.executionType = readString(in, status.executionType);
+                    break;
+                case "state":
+                    status.state = readString(in, status.state);
+                    break;
+                case "startTime":
+                    status.startTime = readString(in, status.startTime);
+                    break;
+                case "endTime":
+                    status.endTime = readString(in, status.endTime);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return status;
+    }
+
+    private static RachioCloudNetworkSettings readNetworkSettings(JsonReader in) throws IOException {
+        RachioCloudNetworkSettings network = new RachioCloudDevice().new RachioCloudNetworkSettings();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "gw":
+                    network.gw = readString(in, network.gw);
+                    break;
+                case "rssi":
+                    network.rssi = readString(in, network.rssi);
+                    break;
+                case "dns1":
+                    network.dns1 = readString(in, network.dns1);
+                    break;
+                case "dns2":
+                    network.dns2 = readString(in, network.dns2);
+                    break;
+                case "ip":
+                    network.ip = readString(in, network.ip);
+                    break;
+                case "nm":
+                    network.nm = readString(in, network.nm);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return network;
+    }
+
+    private static HashMap<String, RachioEventProperty> readDeltaProperties(JsonReader in, RachioEvent event)
+            throws IOException {
+        HashMap<String, RachioEventProperty> properties = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            RachioEventProperty property = readObject(in, r -> {
+                RachioEventProperty p = event.new RachioEventProperty();
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "propertyName":
+                            p.propertyName = readString(r, null);
+                            break;
+                        case "oldValue":
+                            p.oldValue = readString(r, null);
+                            break;
+                        case "newValue":
+                            p.newValue = readString(r, null);
+                            break;
+                        default:
+                            r.skipValue();
+                    }
+                }
+                r.endObject();
+                return p;
+            }, null);
+            if (property != null) {
+                properties.put(key, property);
+            }
+        }
+        in.endObject();
+        return properties;
+    }
+
+    private static HashMap<String, String> readStringMap(JsonReader in) throws IOException {
+        HashMap<String, String> map = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            String value = readString(in, null);
+            if (value != null) {
+                map.put(key, value);
+            }
+        }
+        in.endObject();
+        return map;
+    }
+
+    //
+    // ------ Value readers, null (or a value of an unexpected type) keeps the default
+    //
+
+    private static <T> T readObject(JsonReader in, RachioJsonReader<T> reader, T defValue) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return defValue;
+        }
+        return reader.read(in);
+    }
+
+    private static <T> ArrayList<T> readList(JsonReader in, ArrayList<T> defValue, RachioJsonReader<T> reader)
+            throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return defValue;
+        }
+        ArrayList<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            T element = reader.read(in);
+            if (element != null) {
+                list.add(element);
+            }
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static String readString(JsonReader in, String defValue) throws IOException {
+        switch (in.peek()) {
+            case STRING:
+            case NUMBER:
+                return in.nextString();
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            default:
+                in.skipValue();
+                return defValue;
+        }
+    }
+
+    private static int readInt(JsonReader in, int defValue) throws IOException {
+        try {
+            return isNumber(in) ? in.nextInt() : defValue;
+        } catch (NumberFormatException e) {
+            in.nextString(); // a failed conversion doesn't consume the value
+            return defValue;
+        }
+    }
+
+    private static long readLong(JsonReader in, long defValue) throws IOException {
+        try {
+            return isNumber(in) ? in.nextLong() : defValue;
+        } catch (NumberFormatException e) {
+            in.nextString();
+            return defValue;
+        }
+    }
+
+    private static double readDouble(JsonReader in, double defValue) throws IOException {
+        try {
+            return isNumber(in) ? in.nextDouble() : defValue;
+        } catch (NumberFormatException e) {
+            in.nextString();
+            return defValue;
+        }
+    }
+
+    private static boolean readBoolean(JsonReader in, boolean defValue) throws IOException {
+        switch (in.peek()) {
+            case BOOLEAN:
+                return in.nextBoolean();
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                in.skipValue();
+                return defValue;
+        }
+    }
+
+    /**
+     * @return true if the next value is a number or a string, which may contain a number, other values are skipped
+     */
+    private static boolean isNumber(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if ((token == JsonToken.NUMBER) || (token == JsonToken.STRING)) {
+            return true;
+        }
+        in.skipValue();
+        return false;
+    }
+} // class
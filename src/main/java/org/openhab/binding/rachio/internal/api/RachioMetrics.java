@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The {@link RachioMetrics} records the api calls of one apikey: per endpoint (path with ids masked) and http method
+ * the number of calls, errors by http status code (0=no response), a latency histogram and the bytes received, plus
+ * the rate limit remaining reported by the last response. All counters are lock-free, recording is cheap enough for
+ * every request.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioMetrics {
+    // upper bounds of the latency buckets in ms, the last bucket collects everything above
+    private static final long[] LATENCY_BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+            60000 };
+
+    private static final ConcurrentHashMap<String, RachioMetrics> registry = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics of one endpoint + http method
+     */
+    public static class RachioEndpointStats {
+        private final String method;
+        private final String endpoint;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder totalLatency = new LongAdder();
+        private final ConcurrentHashMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+        private final AtomicLongArray histogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+        RachioEndpointStats(String method, String endpoint) {
+            this.method = method;
+            this.endpoint = endpoint;
+        }
+
+        void record(int responseCode, boolean success, long latencyMs, long bytes) {
+            calls.increment();
+            totalLatency.add(latencyMs);
+            bytesReceived.add(bytes);
+            if (!success) {
+                errors.computeIfAbsent(responseCode, c -> new LongAdder()).increment();
+            }
+            int bucket = 0;
+            while ((bucket < LATENCY_BUCKETS.length) && (latencyMs > LATENCY_BUCKETS[bucket])) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getErrors() {
+            long sum = 0;
+            for (LongAdder count : errors.values()) {
+                sum += count.sum();
+            }
+            return sum;
+        }
+
+        /**
+         * @return number of failed calls by http status code, 0=no response (timeout, connection error)
+         */
+        public Map<Integer, Long> getErrorsByCode() {
+            Map<Integer, Long> result = new TreeMap<>();
+            errors.forEach((code, count) -> result.put(code, count.sum()));
+            return result;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        public long getAverageLatency() {
+            long count = calls.sum();
+            return count > 0 ? totalLatency.sum() / count : 0;
+        }
+
+        /**
+         * Get a latency percentile from the histogram (upper bound of the bucket)
+         *
+         * @param percentile 0..100, e.g. 95
+         * @return latency in ms
+         */
+        public long getLatencyPercentile(double percentile) {
+            long[] counts = new long[histogram.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+            }
+            return percentile(counts, percentile);
+        }
+    }
+
+    private final ConcurrentHashMap<String, RachioEndpointStats> endpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger rateRemaining = new AtomicInteger(-1);
+    private final AtomicInteger rateLimit = new AtomicInteger(-1);
+
+    /**
+     * Get the metrics of the given apikey. All api instances using the same key share them.
+     *
+     * @param apikey Rachio apikey
+     * @return RachioMetrics
+     */
+    public static RachioMetrics getInstance(String apikey) {
+        return registry.computeIfAbsent(apikey != null ? apikey : "", k -> new RachioMetrics());
+    }
+
+    /**
+     * Map the request URL to the endpoint name, ids are replaced by '*' (e.g. api.rach.io/1/public/device/*)
+     *
+     * @param location Request URL
+     * @return endpoint name
+     */
+    public static String getEndpoint(URL location) {
+        return location.getHost() + location.getPath().replaceAll("/[0-9a-fA-F-]{20,}", "/*");
+    }
+
+    /**
+     * Record an api call
+     *
+     * @param method Http method
+     * @param location Request URL
+     * @param responseCode Http status code, 0 if no response was received
+     * @param success true: call succeeded
+     * @param latencyMs Time from sending the request until the response was consumed
+     * @param bytes Number of response bytes received
+     */
+    public void record(String method, URL location, int responseCode, boolean success, long latencyMs, long bytes) {
+        String endpoint = getEndpoint(location);
+        endpoints.computeIfAbsent(method + " " + endpoint, k -> new RachioEndpointStats(method, endpoint))
+                .record(responseCode, success, latencyMs, bytes);
+    }
+
+    public void updateRateLimit(Integer limit, Integer remaining) {
+        if ((limit != null) && (remaining != null) && (limit > 0)) {
+            rateLimit.set(limit);
+            rateRemaining.set(remaining);
+        }
+    }
+
+    /**
+     * @return statistics of all endpoints, sorted by method and endpoint
+     */
+    public List<RachioEndpointStats> getEndpointStats() {
+        List<RachioEndpointStats> result = new ArrayList<>(endpoints.values());
+        Collections.sort(result, (a, b) -> (a.endpoint + a.method).compareTo(b.endpoint + b.method));
+        return result;
+    }
+
+    public long getCalls() {
+        long sum = 0;
+        for (RachioEndpointStats s : endpoints.values()) {
+            sum += s.getCalls();
+        }
+        return sum;
+    }
+
+    public long getErrors() {
+        long sum = 0;
+        for (RachioEndpointStats s : endpoints.values()) {
+            sum += s.getErrors();
+        }
+        return sum;
+    }
+
+    public long getBytesReceived() {
+        long sum = 0;
+        for (RachioEndpointStats s : endpoints.values()) {
+            sum += s.getBytesReceived();
+        }
+        return sum;
+    }
+
+    /**
+     * Get a latency percentile over all endpoints
+     *
+     * @param percentile 0..100, e.g. 95
+     * @return latency in ms
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] counts = new long[LATENCY_BUCKETS.length + 1];
+        for (RachioEndpointStats s : endpoints.values()) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += s.histogram.get(i);
+            }
+        }
+        return percentile(counts, percentile);
+    }
+
+    /**
+     * @return rate limit remaining as reported by the last response, -1 if unknown
+     */
+    public int getRateRemaining() {
+        return rateRemaining.get();
+    }
+
+    public int getRateLimit() {
+        return rateLimit.get();
+    }
+
+    /**
+     * @return per endpoint statistics as JSON array, e.g. for the bridge's apiMetrics channel
+     */
+    public String toJson() {
+        JsonArray list = new JsonArray();
+        for (RachioEndpointStats stats : getEndpointStats()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("method", stats.method);
+            entry.addProperty("endpoint", stats.endpoint);
+            entry.addProperty("calls", stats.getCalls());
+            JsonObject errors = new JsonObject();
+            stats.getErrorsByCode().forEach((code, count) -> errors.addProperty(code.toString(), count));
+            entry.add("errors", errors);
+            entry.addProperty("avg", stats.getAverageLatency());
+            entry.addProperty("p50", stats.getLatencyPercentile(50));
+            entry.addProperty("p95", stats.getLatencyPercentile(95));
+            entry.addProperty("p99", stats.getLatencyPercentile(99));
+            entry.addProperty("bytes", stats.getBytesReceived());
+            list.add(entry);
+        }
+        return list.toString();
+    }
+
+    private static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        long overflow = LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] * 2; // reported for the last bucket
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[i] : overflow;
+            }
+        }
+        return overflow;
+    }
+} // class
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.util.Collection;
+
+import org.openhab.binding.rachio.internal.api.RachioScheduleTimeline.RachioRunWindow;
+
+/**
+ * The {@link RachioPollingPolicy} decides when the bridge polls the cloud and when a poll reads the full account.
+ * Devices with a running zone or a recent command are refreshed every pollingInterval. Without activity the account is
+ * read every fullRefreshInterval, or every idlePollingInterval if webhooks deliver the updates. Polling is paused while
+ * all devices are in rain delay or sleep mode. Without webhooks the run windows predicted from the schedule rules arm
+ * the targeted refreshes shortly before a scheduled run starts. In event mode the device and zone state is kept by
+ * the webhook events, the account is read every checkpointInterval and a device is only refreshed if an event couldn't
+ * be applied. A command, which is not confirmed by an event, falls back to the regular polling.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioPollingPolicy {
+    public enum RachioPollingMode {
+        ACTIVE, // zone running or command sent: targeted refresh every pollingInterval
+        IDLE, // no activity, no (working) webhooks: full refresh every fullRefreshInterval
+        IDLE_WEBHOOK, // no activity, webhooks deliver the updates: full refresh every idlePollingInterval
+        PAUSED, // all devices in rain delay or sleep mode: poll when the rain delay expires
+        EVENT // event mode, webhooks deliver the updates: resync devices on request, full refresh every checkpoint
+    }
+
+    private volatile int pollingInterval = DEFAULT_POLLING_INTERVAL;
+    private volatile int fullRefreshInterval = DEFAULT_FULL_REFRESH_INTERVAL;
+    private volatile int idleInterval = DEFAULT_IDLE_POLLING_INTERVAL;
+    private volatile int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private volatile boolean webHooksEnabled = false;
+    private volatile boolean eventMode = false;
+    private volatile long lastCommand = 0;
+    private volatile long lastEvent = 0;
+
+    /**
+     * @param pollingInterval Seconds between polls while a device is active
+     * @param fullRefreshInterval Seconds between full refreshes without webhooks
+     * @param idleInterval Seconds between full refreshes while webhooks are healthy
+     */
+    public void setIntervals(int pollingInterval, int fullRefreshInterval, int idleInterval) {
+        this.pollingInterval = Math.max(pollingInterval, 1);
+        this.fullRefreshInterval = Math.max(fullRefreshInterval, this.pollingInterval);
+        this.idleInterval = Math.max(idleInterval, this.fullRefreshInterval);
+    }
+
+    /**
+     * @param enabled true if a callback url is configured
+     */
+    public void setWebHooksEnabled(boolean enabled) {
+        webHooksEnabled = enabled;
+    }
+
+    /**
+     * @param enabled true: keep the state by webhook events, poll only as safety net
+     * @param checkpointInterval Seconds between full refreshes in event mode
+     */
+    public void setEventMode(boolean enabled, int checkpointInterval) {
+        eventMode = enabled;
+        this.checkpointInterval = Math.max(checkpointInterval, fullRefreshInterval);
+    }
+
+    /**
+     * A command was sent to the cloud, it should be confirmed by a webhook event
+     */
+    public void onCommand() {
+        lastCommand = System.currentTimeMillis();
+    }
+
+    /**
+     * A webhook event was received
+     */
+    public void onEvent() {
+        lastEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * Webhooks are considered healthy if they are registered for all devices and the last command was followed by an
+     * event within RACHIO_WEBHOOK_EVENT_TIMEOUT_SEC.
+     *
+     * @param pendingWebHooks Number of devices without verified webhook registration
+     * @param now Current time (ms)
+     * @return true if updates are delivered by webhook events
+     */
+    public boolean isWebHookHealthy(int pendingWebHooks, long now) {
+        if (!webHooksEnabled || (pendingWebHooks > 0)) {
+            return false;
+        }
+        long command = lastCommand;
+        return (command <= lastEvent) || (now - command < RACHIO_WEBHOOK_EVENT_TIMEOUT_SEC * 1000L);
+    }
+
+    /**
+     * @param dev Device
+     * @param now Current time (ms)
+     * @return true if the device is in rain delay or sleep mode, it won't water until this ends
+     */
+    public static boolean isPaused(RachioDevice dev, long now) {
+        RachioDeviceState state = dev.getState();
+        return !state.isOn() || (state.getRainDelayExpirationDate() > now);
+    }
+
+    /**
+     * Polling is suppressed while the device is paused and the end of the pause will be noticed without polling: the
+     * end of a rain delay is known in advance, leaving sleep mode is only noticed by a webhook event
+     */
+    private static boolean isPollingSuppressed(RachioDevice dev, boolean webHookHealthy, long now) {
+        RachioDeviceState state = dev.getState();
+        return (state.getRainDelayExpirationDate() > now) || (!state.isOn() && webHookHealthy);
+    }
+
+    /**
+     * Request targeted refreshes for devices with a scheduled run starting within RACHIO_SCHEDULE_PREARM_SEC, until
+     * the run is expected to end. Healthy webhooks report the start of the run with a zone event.
+     *
+     * @param devices Devices of the bridge
+     * @param webHookHealthy Result of isWebHookHealthy()
+     * @param now Current time (ms)
+     */
+    public void armScheduledRuns(Collection<RachioDevice> devices, boolean webHookHealthy, long now) {
+        if (webHookHealthy) {
+            return;
+        }
+        for (RachioDevice dev : devices) {
+            RachioRunWindow window = dev.getNextRunWindow(now);
+            if ((window != null) && (window.start - RACHIO_SCHEDULE_PREARM_SEC * 1000L <= now)) {
+                dev.requestRefresh((int) ((window.end - now) / 1000) + RACHIO_EVENT_REFRESH_SEC);
+            }
+        }
+    }
+
+    /**
+     * @return time (ms) to arm the targeted refreshes for the next scheduled run of any device, 0 if none
+     */
+    private static long getNextArmTime(Collection<RachioDevice> devices, long now) {
+        long next = 0;
+        for (RachioDevice dev : devices) {
+            RachioRunWindow window = dev.getNextRunWindow(now);
+            if (window != null) {
+                long arm = window.start - RACHIO_SCHEDULE_PREARM_SEC * 1000L;
+                next = next == 0 ? arm : Math.min(next, arm);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @param devices Devices of the bridge
+     * @param webHookHealthy Result of isWebHookHealthy()
+     * @param now Current time (ms)
+     * @return Polling mode
+     */
+    public RachioPollingMode getMode(Collection<RachioDevice> devices, boolean webHookHealthy, long now) {
+        boolean events = eventMode && webHookHealthy;
+        boolean paused = !devices.isEmpty();
+        for (RachioDevice dev : devices) {
+            if (dev.isResyncRequested() || (!events && dev.isRefreshRequested())) {
+                return events ? RachioPollingMode.EVENT : RachioPollingMode.ACTIVE;
+            }
+            paused &= isPollingSuppressed(dev, webHookHealthy, now);
+        }
+        if (paused) {
+            return RachioPollingMode.PAUSED;
+        }
+        if (events) {
+            return RachioPollingMode.EVENT;
+        }
+        return webHookHealthy ? RachioPollingMode.IDLE_WEBHOOK : RachioPollingMode.IDLE;
+    }
+
+    /**
+     * @param dev Device
+     * @param mode Polling mode
+     * @return true if the device should be included in the targeted refresh
+     */
+    public boolean isRefreshDue(RachioDevice dev, RachioPollingMode mode) {
+        // in event mode running zones and commands are reported by events
+        return dev.isResyncRequested() || ((mode != RachioPollingMode.EVENT) && dev.isRefreshRequested());
+    }
+
+    /**
+     * @param mode Polling mode
+     * @param lastFullRefresh Time of the last full refresh (ms)
+     * @param now Current time (ms)
+     * @return true if the poll should read the full account
+     */
+    public boolean isFullRefreshDue(RachioPollingMode mode, long lastFullRefresh, long now) {
+        switch (mode) {
+            case PAUSED:
+                return true; // rain delay expired or woken up by an event
+            case IDLE_WEBHOOK:
+                return now - lastFullRefresh >= idleInterval * 1000L;
+            case EVENT:
+                return now - lastFullRefresh >= checkpointInterval * 1000L;
+            default:
+                return now - lastFullRefresh >= fullRefreshInterval * 1000L;
+        }
+    }
+
+    /**
+     * @param mode Polling mode
+     * @param devices Devices of the bridge
+     * @param lastFullRefresh Time of the last full refresh (ms)
+     * @param now Current time (ms)
+     * @return Time of the next poll (ms)
+     */
+    public long getNextPoll(RachioPollingMode mode, Collection<RachioDevice> devices, long lastFullRefresh, long now) {
+        long minNext = now + pollingInterval * 1000L;
+        switch (mode) {
+            case ACTIVE:
+                return minNext;
+            case IDLE_WEBHOOK:
+                return Math.max(lastFullRefresh + idleInterval * 1000L, minNext);
+            case EVENT:
+                for (RachioDevice dev : devices) {
+                    if (dev.isResyncRequested()) {
+                        return minNext;
+                    }
+                }
+                return Math.max(lastFullRefresh + checkpointInterval * 1000L, minNext);
+            case PAUSED:
+                // wake up when the first rain delay expires, sleep mode ends with a command or event
+                long next = now + RACHIO_POLLING_PAUSE_MAX_SEC * 1000L;
+                for (RachioDevice dev : devices) {
+                    long expiration = dev.getState().getRainDelayExpirationDate();
+                    if (expiration > now) {
+                        next = Math.min(next, expiration);
+                    }
+                }
+                return Math.max(next, minNext);
+            default:
+                long full = Math.max(lastFullRefresh + fullRefreshInterval * 1000L, minNext);
+                long arm = getNextArmTime(devices, now);
+                // the polling interval applies to arming a scheduled run as well
+                return arm > now ? Math.max(Math.min(full, arm), minNext) : full;
+        }
+    }
+} // class
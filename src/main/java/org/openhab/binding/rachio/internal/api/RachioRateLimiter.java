@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioRateLimiter} governs the api calls of one apikey. It's a token bucket, which is seeded from the
+ * X-RateLimit-* headers of the last response. The remaining daily budget (minus a reserve for user commands) is spread
+ * evenly until the reset time, so polling and discovery slow down instead of exhausting the quota and then going dark.
+ * User commands are not throttled by the bucket, they only need to stay above the blocking limit.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioRateLimiter {
+    public enum RachioApiPriority {
+        COMMAND, // user initiated commands (start/stop zones, rain delay...)
+        POLL, // status refresh
+        BACKGROUND // discovery, webhook maintenance
+    }
+
+    private static final ConcurrentHashMap<String, RachioRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(RachioRateLimiter.class);
+
+    private int limit = 0; // 0=not seeded yet
+    private int remaining = 0;
+    private long resetTime = 0;
+    private double tokens = RACHIO_RATE_BURST;
+    private long lastRefill = System.currentTimeMillis();
+
+    /**
+     * Get the rate limiter for the given apikey. All api instances using the same key share one limiter.
+     *
+     * @param apikey Rachio apikey
+     * @return RachioRateLimiter
+     */
+    public static RachioRateLimiter getInstance(String apikey) {
+        return limiters.computeIfAbsent(apikey != null ? apikey : "", k -> new RachioRateLimiter());
+    }
+
+    /**
+     * Seed the bucket from the response headers
+     *
+     * @param rateLimit X-RateLimit-Limit
+     * @param rateRemaining X-RateLimit-Remaining
+     * @param rateReset X-RateLimit-Reset
+     */
+    public synchronized void update(Integer rateLimit, Integer rateRemaining, String rateReset) {
+        if ((rateLimit == null) || (rateRemaining == null) || (rateLimit <= 0)) {
+            return;
+        }
+        refill(System.currentTimeMillis());
+        limit = rateLimit;
+        remaining = rateRemaining;
+        resetTime = parseResetTime(rateReset);
+    }
+
+    /**
+     * Check if a call with the given priority would be allowed, doesn't consume budget.
+     *
+     * @param priority Call priority
+     * @return true: call allowed
+     */
+    public synchronized boolean canAcquire(RachioApiPriority priority) {
+        return check(priority, System.currentTimeMillis());
+    }
+
+    /**
+     * Consume budget for an api call
+     *
+     * @param priority Call priority
+     * @return true: call allowed, false: budget exhausted for this priority
+     */
+    public synchronized boolean tryAcquire(RachioApiPriority priority) {
+        long now = System.currentTimeMillis();
+        if (!check(priority, now)) {
+            logger.debug("RachioRateLimiter: {} call rejected, remaining={}/{}, tokens={}, reset at {}", priority,
+                    remaining, limit, String.format("%.2f", tokens), Instant.ofEpochMilli(resetTime));
+            return false;
+        }
+        if (limit > 0) {
+            remaining--;
+            if (priority != RachioApiPriority.COMMAND) {
+                tokens -= 1.0;
+            }
+        }
+        return true;
+    }
+
+    public synchronized int getRemaining() {
+        return remaining;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return time the daily budget is reset (ms since epoch)
+     */
+    public synchronized long getResetTime() {
+        return resetTime;
+    }
+
+    private boolean check(RachioApiPriority priority, long now) {
+        if (limit == 0) {
+            return true; // not seeded yet
+        }
+        if (now >= resetTime) {
+            // new period started, next response will re-seed the bucket
+            remaining = limit;
+            resetTime = nextMidnight(now);
+            tokens = RACHIO_RATE_BURST;
+        }
+        refill(now);
+
+        switch (priority) {
+            case COMMAND:
+                return remaining > RACHIO_RATE_LIMIT_BLOCK;
+            case POLL:
+                return (remaining > RACHIO_RATE_LIMIT_CRITICAL) && (tokens >= 1.0);
+            default:
+                return (remaining > RACHIO_RATE_LIMIT_WARNING) && (tokens >= 1.0);
+        }
+    }
+
+    /**
+     * Add tokens for the elapsed time: the budget above the command reserve is spread evenly until the reset time
+     */
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        lastRefill = now;
+        if ((limit == 0) || (elapsed <= 0)) {
+            return;
+        }
+        long period = Math.max(resetTime - now, 1000);
+        double budget = Math.max(remaining - RACHIO_RATE_LIMIT_CRITICAL, 0);
+        tokens = Math.min(RACHIO_RATE_BURST, tokens + budget * elapsed / period);
+    }
+
+    private long parseResetTime(String rateReset) {
+        long now = System.currentTimeMillis();
+        if ((rateReset == null) || rateReset.isEmpty()) {
+            return nextMidnight(now);
+        }
+        try {
+            long value = Long.parseLong(rateReset.trim());
+            // epoch seconds or epoch ms
+            return value < 100000000000L ? value * 1000 : value;
+        } catch (NumberFormatException e) {
+            // not numeric
+        }
+        try {
+            return Instant.parse(rateReset.trim()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not ISO
+        }
+        try {
+            return ZonedDateTime.parse(rateReset.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            logger.debug("RachioRateLimiter: Unable to parse reset time '{}', assume midnight UTC", rateReset);
+        }
+        return nextMidnight(now);
+    }
+
+    /**
+     * The Rachio rate limit is reset daily at midnight UTC
+     */
+    private static long nextMidnight(long now) {
+        LocalDate today = Instant.ofEpochMilli(now).atZone(ZoneOffset.UTC).toLocalDate();
+        return today.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+} // class
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRule;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRuleZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioScheduleTimeline} compiles the schedule rules of a device into the expected run windows. Supported
+ * job types are DAY_OF_WEEK_n (0=Sunday), INTERVAL_n (every n days from the start date), ODD, EVEN and ANY. Flex
+ * rules are only included if they run on fixed days, otherwise the cloud decides the days based on the weather. The
+ * windows are a prediction: weather intelligence might skip a run and manual runs are not included.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioScheduleTimeline {
+    private static final Logger logger = LoggerFactory.getLogger(RachioScheduleTimeline.class);
+
+    private static final int SCHEDULE_HORIZON_DAYS = 31; // longest interval of a rule
+
+    /**
+     * Expected run of a schedule rule
+     */
+    public static class RachioRunWindow {
+        public final String ruleId;
+        public final String ruleName;
+        public final long start; // ms since epoch
+        public final long end;
+
+        RachioRunWindow(String ruleId, String ruleName, long start, long end) {
+            this.ruleId = ruleId;
+            this.ruleName = ruleName;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return ruleName + " " + Instant.ofEpochMilli(start) + "-" + Instant.ofEpochMilli(end);
+        }
+    }
+
+    private static class RachioCompiledRule {
+        String id = "";
+        String name = "";
+        int startMinute; // minute of the day
+        boolean before; // the run ends at the start time
+        int duration; // seconds
+        int daysOfWeek; // bit 0=Sunday .. 6=Saturday
+        int interval; // days, 0=not used
+        boolean odd;
+        boolean even;
+        boolean any;
+        LocalDate firstDay;
+        LocalDate lastDay; // null=no end
+
+        boolean runsOn(LocalDate day) {
+            if (day.isBefore(firstDay) || ((lastDay != null) && day.isAfter(lastDay))) {
+                return false;
+            }
+            int dayOfMonth = day.getDayOfMonth();
+            return any || ((daysOfWeek & (1 << (day.getDayOfWeek().getValue() % 7))) != 0)
+                    || ((interval > 0) && (ChronoUnit.DAYS.between(firstDay, day) % interval == 0))
+                    || (odd && (dayOfMonth % 2 == 1)) || (even && (dayOfMonth % 2 == 0));
+        }
+    }
+
+    private final List<RachioCloudScheduleRule> scheduleRules;
+    private final List<RachioCloudScheduleRule> flexScheduleRules;
+    private final ZoneId zoneId;
+    private final List<RachioCompiledRule> rules = new ArrayList<>();
+
+    /**
+     * @param scheduleRules Fixed schedule rules of the device
+     * @param flexScheduleRules Flex schedule rules of the device
+     */
+    public RachioScheduleTimeline(List<RachioCloudScheduleRule> scheduleRules,
+            List<RachioCloudScheduleRule> flexScheduleRules) {
+        this.scheduleRules = scheduleRules;
+        this.flexScheduleRules = flexScheduleRules;
+        zoneId = ZoneId.systemDefault(); // the api doesn't provide the time zone of the device
+        for (RachioCloudScheduleRule rule : scheduleRules) {
+            compile(rule, false);
+        }
+        for (RachioCloudScheduleRule rule : flexScheduleRules) {
+            compile(rule, true);
+        }
+    }
+
+    /**
+     * @return true if the timeline was compiled from the given rule lists
+     */
+    boolean isCompiledFrom(List<RachioCloudScheduleRule> scheduleRules,
+            List<RachioCloudScheduleRule> flexScheduleRules) {
+        return (this.scheduleRules == scheduleRules) && (this.flexScheduleRules == flexScheduleRules);
+    }
+
+    /**
+     * @return number of rules with predictable run windows
+     */
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    private void compile(RachioCloudScheduleRule rule, boolean flex) {
+        if (!rule.enabled) {
+            return;
+        }
+        RachioCompiledRule r = new RachioCompiledRule();
+        for (String jobType : rule.scheduleJobTypes) {
+            try {
+                if (jobType.startsWith("DAY_OF_WEEK_")) {
+                    r.daysOfWeek |= 1 << Integer.parseInt(jobType.substring("DAY_OF_WEEK_".length()));
+                } else if (jobType.startsWith("INTERVAL_")) {
+                    r.interval = Integer.parseInt(jobType.substring("INTERVAL_".length()));
+                } else if (jobType.equals("ODD")) {
+                    r.odd = true;
+                } else if (jobType.equals("EVEN")) {
+                    r.even = true;
+                } else if (jobType.equals("ANY")) {
+                    r.any = !flex; // a flex rule waters when the soil moisture requires it
+                } else {
+                    logger.trace("RachioSchedule: Job type '{}' of rule '{}' not supported", jobType, rule.name);
+                }
+            } catch (NumberFormatException e) {
+                logger.debug("RachioSchedule: Invalid job type '{}' in rule '{}'", jobType, rule.name);
+            }
+        }
+        r.daysOfWeek &= 0x7f;
+        if (rule.startDate <= 0) {
+            r.interval = 0; // no reference day for the interval
+        }
+        if (!r.any && (r.daysOfWeek == 0) && (r.interval <= 0) && !r.odd && !r.even) {
+            logger.trace("RachioSchedule: Run days of rule '{}' are not predictable", rule.name);
+            return;
+        }
+
+        // totalDuration includes the soak periods of a cycle-soak rule
+        r.duration = rule.totalDuration;
+        if (r.duration <= 0) {
+            for (RachioCloudScheduleRuleZone zone : rule.zones) {
+                r.duration += zone.duration;
+            }
+        }
+        if (r.duration <= 0) {
+            return;
+        }
+        r.id = rule.id;
+        r.name = rule.externalName.isEmpty() ? rule.name : rule.externalName;
+        r.startMinute = rule.startHour * 60 + rule.startMinute;
+        r.before = "BEFORE".equalsIgnoreCase(rule.operator);
+        r.firstDay = rule.startDate > 0 ? Instant.ofEpochMilli(rule.startDate).atZone(zoneId).toLocalDate()
+                : LocalDate.MIN;
+        r.lastDay = rule.endDate > 0 ? Instant.ofEpochMilli(rule.endDate).atZone(zoneId).toLocalDate() : null;
+        rules.add(r);
+    }
+
+    /**
+     * Get the run windows overlapping a time range, sorted by start time
+     *
+     * @param from Start of the range (ms)
+     * @param to End of the range (ms)
+     * @return run windows
+     */
+    public List<RachioRunWindow> getWindows(long from, long to) {
+        List<RachioRunWindow> windows = new ArrayList<>();
+        if (rules.isEmpty() || (to <= from)) {
+            return windows;
+        }
+        // a run started the day before might still be running
+        LocalDate day = Instant.ofEpochMilli(from).atZone(zoneId).toLocalDate().minusDays(1);
+        LocalDate lastDay = Instant.ofEpochMilli(to).atZone(zoneId).toLocalDate().plusDays(1);
+        for (; !day.isAfter(lastDay); day = day.plusDays(1)) {
+            for (RachioCompiledRule rule : rules) {
+                if (!rule.runsOn(day)) {
+                    continue;
+                }
+                long time = day.atStartOfDay(zoneId).plusMinutes(rule.startMinute).toInstant().toEpochMilli();
+                long start = rule.before ? time - rule.duration * 1000L : time;
+                long end = start + rule.duration * 1000L;
+                if ((end > from) && (start < to)) {
+                    windows.add(new RachioRunWindow(rule.id, rule.name, start, end));
+                }
+            }
+        }
+        windows.sort((a, b) -> Long.compare(a.start, b.start));
+        return windows;
+    }
+
+    /**
+     * Get the current or next run window
+     *
+     * @param now Current time (ms)
+     * @param notBefore Runs starting before this time are skipped (e.g. end of the rain delay)
+     * @return run window or null if no run is expected within the horizon
+     */
+    public RachioRunWindow getNextWindow(long now, long notBefore) {
+        long from = Math.max(now, notBefore);
+        for (RachioRunWindow window : getWindows(now, from + SCHEDULE_HORIZON_DAYS * 24 * 3600 * 1000L)) {
+            if (window.start >= notBefore) {
+                return window;
+            }
+        }
+        return null;
+    }
+} // class
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioCloudStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * The {@link RachioSnapshotCache} persists the last known account model (person, devices, zones and schedules) of a
+ * bridge, so the bridge and its things can be initialized on startup without waiting for the cloud. The file has a
+ * small binary header (magic, format version, hash of the apikey, personId, save time) followed by the person document
+ * as deflated JSON. A snapshot with another format version or of another apikey is ignored.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioSnapshotCache {
+    private static final Logger logger = LoggerFactory.getLogger(RachioSnapshotCache.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x52434853; // "RCHS"
+    private static final short SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FOLDER = "rachio";
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final int SNAPSHOT_BUFFER_SIZE = 8192;
+
+    private final Path file;
+    private long savedAt = 0;
+
+    public RachioSnapshotCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the cache file of a bridge thing, located in <userdata>/rachio
+     *
+     * @param bridgeId Bridge thing id
+     * @return cache or null if the userdata folder is not available
+     */
+    public static RachioSnapshotCache forBridge(String bridgeId) {
+        String userData = ConfigConstants.getUserDataFolder();
+        if ((userData == null) || userData.isEmpty()) {
+            return null;
+        }
+        return new RachioSnapshotCache(
+                Paths.get(userData, SNAPSHOT_FOLDER, bridgeId.replaceAll("[^\\w-]", "_") + SNAPSHOT_EXTENSION));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return time the loaded/saved snapshot was taken (ms since epoch), 0 if none
+     */
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    /**
+     * Write the snapshot, the file is replaced atomically
+     *
+     * @param apikey apikey the data belongs to
+     * @param status Person document as received from the cloud
+     * @return true if the snapshot was written
+     */
+    boolean save(String apikey, RachioCloudStatus status) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), SNAPSHOT_BUFFER_SIZE)) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(SNAPSHOT_MAGIC);
+                header.writeShort(SNAPSHOT_VERSION);
+                header.writeUTF(RachioApi.getMD5Hash(apikey));
+                header.writeUTF(status.id);
+                header.writeLong(now);
+                header.flush();
+
+                DeflaterOutputStream body = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED));
+                Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+                RachioJson.gson.toJson(status, writer);
+                writer.flush();
+                body.finish();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedAt = now;
+            logger.trace("RachioSnapshotCache: Snapshot with {} devices written to {}", status.devices.size(), file);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("RachioSnapshotCache: Unable to write snapshot {}: {}", file, e.toString());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignore) {
+                // nothing to do
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the snapshot
+     *
+     * @param apikey Configured apikey, a snapshot of another apikey is ignored
+     * @return Person document or null if there is no usable snapshot
+     */
+    RachioCloudStatus load(String apikey) {
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), SNAPSHOT_BUFFER_SIZE)) {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != SNAPSHOT_MAGIC) {
+                logger.debug("RachioSnapshotCache: {} is not a snapshot file", file);
+                return null;
+            }
+            short version = header.readShort();
+            if (version != SNAPSHOT_VERSION) {
+                logger.debug("RachioSnapshotCache: Snapshot format {} not supported (expected {})", version,
+                        SNAPSHOT_VERSION);
+                return null;
+            }
+            if (!header.readUTF().equals(RachioApi.getMD5Hash(apikey))) {
+                logger.debug("RachioSnapshotCache: Snapshot belongs to another apikey");
+                return null;
+            }
+            String personId = header.readUTF();
+            long time = header.readLong();
+
+            Reader reader = new InputStreamReader(new InflaterInputStream(in), StandardCharsets.UTF_8);
+            RachioCloudStatus status = RachioJson.gson.fromJson(reader, RachioCloudStatus.class);
+            if ((status == null) || !personId.equals(status.id)) {
+                return null;
+            }
+            savedAt = time;
+            logger.debug("RachioSnapshotCache: Snapshot from {} loaded, {} devices", time, status.devices.size());
+            return status;
+        } catch (IOException | JsonParseException e) {
+            logger.debug("RachioSnapshotCache: Unable to read snapshot {}: {}", file, e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Remove the snapshot, e.g. when the bridge thing is removed
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("RachioSnapshotCache: Unable to delete {}: {}", file, e.getMessage());
+        }
+        savedAt = 0;
+    }
+} // class
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudNetworkSettings;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRule;
+import org.openhab.binding.rachio.internal.api.RachioCloudDevice.RachioCloudScheduleRuleZone;
+
+/**
+ * The {@link RachioStateChange} is the field level difference between two snapshots of a device or a zone (see
+ * {@link RachioDeviceState}, {@link RachioZoneState}). A refresh reports one change per updated device/zone, so the
+ * thing handlers only update the channels and properties backed by the changed fields.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioStateChange {
+    public enum RachioDeviceField {
+        STATUS,
+        ON,
+        PAUSED,
+        NAME,
+        MODEL,
+        SERIAL_NUMBER,
+        LATITUDE,
+        LONGITUDE,
+        RAIN_DELAY_EXPIRATION,
+        SCHEDULE_MODE,
+        CYCLE_SOAK,
+        SCHEDULE_RULES,
+        RAIN_DELAY,
+        RUN_ZONES,
+        RUN_TIME,
+        EVENT,
+        NETWORK,
+        SCHEDULE_NAME,
+        ZONES
+    }
+
+    public enum RachioZoneField {
+        ZONE_NUMBER,
+        NAME,
+        ENABLED,
+        AVAILABLE_WATER,
+        ROOT_ZONE_DEPTH,
+        MANAGEMENT_ALLOWED_DEPLETION,
+        EFFICIENCY,
+        YARD_AREA,
+        IMAGE_URL,
+        LAST_WATERED,
+        SCHEDULE_DATA_MODIFIED,
+        FIXED_RUNTIME,
+        SATURATED_DEPTH_OF_WATER,
+        DEPTH_OF_WATER,
+        MAX_RUNTIME,
+        RUNTIME_NO_MULTIPLIER,
+        RUNTIME,
+        START_RUN_TIME
+    }
+
+    private final RachioDevice device;
+    private final RachioZone zone; // null for device changes
+    private final EnumSet<RachioDeviceField> deviceFields;
+    private final EnumSet<RachioZoneField> zoneFields;
+    private final List<String> scheduleRules; // ids of added, removed or changed schedule rules
+
+    private RachioStateChange(RachioDevice device, RachioZone zone, EnumSet<RachioDeviceField> deviceFields,
+            EnumSet<RachioZoneField> zoneFields, List<String> scheduleRules) {
+        this.device = device;
+        this.zone = zone;
+        this.deviceFields = deviceFields;
+        this.zoneFields = zoneFields;
+        this.scheduleRules = Collections.unmodifiableList(scheduleRules);
+    }
+
+    /**
+     * Compare two snapshots of a device
+     *
+     * @param device Device the snapshots belong to
+     * @param from Old snapshot
+     * @param to New snapshot
+     * @return change, empty if the snapshots are equal
+     */
+    public static RachioStateChange diff(RachioDevice device, RachioDeviceState from, RachioDeviceState to) {
+        EnumSet<RachioDeviceField> fields = EnumSet.noneOf(RachioDeviceField.class);
+        List<String> rules = new ArrayList<>();
+        if (from != to) {
+            check(fields, RachioDeviceField.STATUS, !from.getStatus().equals(to.getStatus()));
+            check(fields, RachioDeviceField.ON, from.isOn() != to.isOn());
+            check(fields, RachioDeviceField.PAUSED, from.isPaused() != to.isPaused());
+            check(fields, RachioDeviceField.NAME, !Objects.equals(from.getName(), to.getName()));
+            check(fields, RachioDeviceField.MODEL, !Objects.equals(from.getModel(), to.getModel()));
+            check(fields, RachioDeviceField.SERIAL_NUMBER,
+                    !Objects.equals(from.getSerialNumber(), to.getSerialNumber()));
+            check(fields, RachioDeviceField.LATITUDE, from.getLatitude() != to.getLatitude());
+            check(fields, RachioDeviceField.LONGITUDE, from.getLongitude() != to.getLongitude());
+            check(fields, RachioDeviceField.RAIN_DELAY_EXPIRATION,
+                    from.getRainDelayExpirationDate() != to.getRainDelayExpirationDate());
+            check(fields, RachioDeviceField.SCHEDULE_MODE,
+                    !Objects.equals(from.getScheduleModeType(), to.getScheduleModeType()));
+            check(fields, RachioDeviceField.CYCLE_SOAK, from.isCycleSoak() != to.isCycleSoak());
+            diffScheduleRules(from.getScheduleRules(), to.getScheduleRules(), rules);
+            diffScheduleRules(from.getFlexScheduleRules(), to.getFlexScheduleRules(), rules);
+            check(fields, RachioDeviceField.SCHEDULE_RULES, !rules.isEmpty());
+            check(fields, RachioDeviceField.RAIN_DELAY, from.getRainDelay() != to.getRainDelay());
+            check(fields, RachioDeviceField.RUN_ZONES, !from.getRunList().equals(to.getRunList()));
+            check(fields, RachioDeviceField.RUN_TIME, from.getRunTime() != to.getRunTime());
+            check(fields, RachioDeviceField.EVENT, !from.getLastEvent().equals(to.getLastEvent()));
+            check(fields, RachioDeviceField.NETWORK, !sameNetwork(from.getNetwork(), to.getNetwork()));
+            check(fields, RachioDeviceField.SCHEDULE_NAME, !from.getScheduleName().equals(to.getScheduleName()));
+            check(fields, RachioDeviceField.ZONES, !sameZones(from.getZoneTable(), to.getZoneTable()));
+        }
+        return new RachioStateChange(device, null, fields, EnumSet.noneOf(RachioZoneField.class), rules);
+    }
+
+    /**
+     * Compare two snapshots of a zone
+     *
+     * @param device Device the zone belongs to
+     * @param zone Zone the snapshots belong to
+     * @param from Old snapshot
+     * @param to New snapshot
+     * @return change, empty if the snapshots are equal
+     */
+    public static RachioStateChange diff(RachioDevice device, RachioZone zone, RachioZoneState from,
+            RachioZoneState to) {
+        EnumSet<RachioZoneField> fields = EnumSet.noneOf(RachioZoneField.class);
+        if (from != to) {
+            check(fields, RachioZoneField.ZONE_NUMBER, from.getZoneNumber() != to.getZoneNumber());
+            check(fields, RachioZoneField.NAME, !Objects.equals(from.getName(), to.getName()));
+            check(fields, RachioZoneField.ENABLED, from.isEnabled() != to.isEnabled());
+            check(fields, RachioZoneField.AVAILABLE_WATER, from.getAvailableWater() != to.getAvailableWater());
+            check(fields, RachioZoneField.ROOT_ZONE_DEPTH, from.getRootZoneDepth() != to.getRootZoneDepth());
+            check(fields, RachioZoneField.MANAGEMENT_ALLOWED_DEPLETION,
+                    from.getManagementAllowedDepletion() != to.getManagementAllowedDepletion());
+            check(fields, RachioZoneField.EFFICIENCY, from.getEfficiency() != to.getEfficiency());
+            check(fields, RachioZoneField.YARD_AREA, from.getYardAreaSquareFeet() != to.getYardAreaSquareFeet());
+            check(fields, RachioZoneField.IMAGE_URL, !Objects.equals(from.getImageUrl(), to.getImageUrl()));
+            check(fields, RachioZoneField.LAST_WATERED, from.getLastWateredDate() != to.getLastWateredDate());
+            check(fields, RachioZoneField.SCHEDULE_DATA_MODIFIED,
+                    from.isScheduleDataModified() != to.isScheduleDataModified());
+            check(fields, RachioZoneField.FIXED_RUNTIME, from.getFixedRuntime() != to.getFixedRuntime());
+            check(fields, RachioZoneField.SATURATED_DEPTH_OF_WATER,
+                    from.getSaturatedDepthOfWater() != to.getSaturatedDepthOfWater());
+            check(fields, RachioZoneField.DEPTH_OF_WATER, from.getDepthOfWater() != to.getDepthOfWater());
+            check(fields, RachioZoneField.MAX_RUNTIME, from.getMaxRuntime() != to.getMaxRuntime());
+            check(fields, RachioZoneField.RUNTIME_NO_MULTIPLIER,
+                    from.getRuntimeNoMultiplier() != to.getRuntimeNoMultiplier());
+            check(fields, RachioZoneField.RUNTIME, from.getRuntime() != to.getRuntime());
+            check(fields, RachioZoneField.START_RUN_TIME, from.getStartRunTime() != to.getStartRunTime());
+        }
+        return new RachioStateChange(device, zone, EnumSet.noneOf(RachioDeviceField.class), fields,
+                Collections.emptyList());
+    }
+
+    /**
+     * @return change with all fields marked as changed, e.g. for a new or re-initialized thing
+     */
+    public static RachioStateChange all(RachioDevice device, RachioZone zone) {
+        return new RachioStateChange(device, zone,
+                zone == null ? EnumSet.allOf(RachioDeviceField.class) : EnumSet.noneOf(RachioDeviceField.class),
+                zone != null ? EnumSet.allOf(RachioZoneField.class) : EnumSet.noneOf(RachioZoneField.class),
+                Collections.emptyList());
+    }
+
+    public RachioDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * @return changed zone, null for device changes
+     */
+    public RachioZone getZone() {
+        return zone;
+    }
+
+    public boolean isEmpty() {
+        return deviceFields.isEmpty() && zoneFields.isEmpty();
+    }
+
+    public boolean contains(RachioDeviceField field) {
+        return deviceFields.contains(field);
+    }
+
+    public boolean contains(RachioZoneField field) {
+        return zoneFields.contains(field);
+    }
+
+    /**
+     * @return ids of the added, removed or changed schedule rules (standard and flex)
+     */
+    public List<String> getScheduleRules() {
+        return scheduleRules;
+    }
+
+    @Override
+    public String toString() {
+        return zone == null ? deviceFields.toString() : zoneFields.toString();
+    }
+
+    private static <E extends Enum<E>> void check(EnumSet<E> fields, E field, boolean changed) {
+        if (changed) {
+            fields.add(field);
+        }
+    }
+
+    private static void diffScheduleRules(List<RachioCloudScheduleRule> from, List<RachioCloudScheduleRule> to,
+            List<String> changed) {
+        if (from == to) {
+            return;
+        }
+        Map<String, RachioCloudScheduleRule> oldRules = new HashMap<>();
+        for (RachioCloudScheduleRule rule : from) {
+            oldRules.put(rule.id, rule);
+        }
+        for (RachioCloudScheduleRule rule : to) {
+            RachioCloudScheduleRule old = oldRules.remove(rule.id);
+            if ((old == null) || !sameRule(old, rule)) {
+                changed.add(rule.id);
+            }
+        }
+        changed.addAll(oldRules.keySet()); // removed
+    }
+
+    private static boolean sameRule(RachioCloudScheduleRule a, RachioCloudScheduleRule b) {
+        if ((a.startHour != b.startHour) || (a.startMinute != b.startMinute) || (a.startDate != b.startDate)
+                || (a.enabled != b.enabled) || (a.startDay != b.startDay) || (a.startMonth != b.startMonth)
+                || (a.startYear != b.startYear) || (a.totalDuration != b.totalDuration) || (a.endDate != b.endDate)
+                || (a.etSkip != b.etSkip) || (a.cycleSoak != b.cycleSoak) || !Objects.equals(a.name, b.name)
+                || !Objects.equals(a.externalName, b.externalName) || !Objects.equals(a.type, b.type)
+                || !Objects.equals(a.operator, b.operator) || !Objects.equals(a.cycleSoakStatus, b.cycleSoakStatus)
+                || !Objects.equals(a.scheduleJobTypes, b.scheduleJobTypes) || (a.zones.size() != b.zones.size())) {
+            return false;
+        }
+        for (int i = 0; i < a.zones.size(); i++) {
+            RachioCloudScheduleRuleZone za = a.zones.get(i);
+            RachioCloudScheduleRuleZone zb = b.zones.get(i);
+            if (!Objects.equals(za.zoneId, zb.zoneId) || (za.duration != zb.duration)
+                    || (za.sortOrder != zb.sortOrder)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameNetwork(RachioCloudNetworkSettings a, RachioCloudNetworkSettings b) {
+        if (a == b) {
+            return true;
+        }
+        if ((a == null) || (b == null)) {
+            return false;
+        }
+        return Objects.equals(a.ip, b.ip) && Objects.equals(a.nm, b.nm) && Objects.equals(a.gw, b.gw)
+                && Objects.equals(a.dns1, b.dns1) && Objects.equals(a.dns2, b.dns2)
+                && Objects.equals(a.rssi, b.rssi);
+    }
+
+    private static boolean sameZones(RachioDeviceState.RachioZoneTable a, RachioDeviceState.RachioZoneTable b) {
+        if (a == b) {
+            return true;
+        }
+        RachioZone[] za = a.getZonesByNumber();
+        RachioZone[] zb = b.getZonesByNumber();
+        return (a.getZones().size() == b.getZones().size()) && Arrays.equals(za, zb);
+    }
+} // class
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiWebHookEntry;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiWebHookEventType;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter.RachioApiPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioWebHookReconciler} keeps the desired webhook registration (callback url, externalId, event types)
+ * per device and a cache of the registrations verified with the cloud. A reconcile reads the webhook list of a device
+ * only if the cache is not in sync, keeps a registration which already matches and issues only the missing
+ * create/delete calls. Re-initializing a device thing doesn't cause any api call once its webhook is verified. The
+ * maps are guarded by the instance monitor, which is never held during an api call, so the poll can check the
+ * pending registrations while a reconcile pass is running. The passes are serialized by a separate lock.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioWebHookReconciler {
+    private final Logger logger = LoggerFactory.getLogger(RachioWebHookReconciler.class);
+
+    /**
+     * Webhook registration of a device
+     */
+    static class RachioWebHookSpec {
+        final String url;
+        final String externalId;
+        final Set<String> eventTypes;
+        final boolean clearAll;
+
+        RachioWebHookSpec(String url, String externalId, boolean clearAll, String... eventTypes) {
+            this.url = url;
+            this.externalId = externalId;
+            this.eventTypes = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(eventTypes)));
+            this.clearAll = clearAll;
+        }
+
+        /**
+         * @return true if the registered webhook delivers the desired events to the callback url
+         */
+        boolean matches(RachioApiWebHookEntry whe) {
+            if (!url.equals(whe.url) || !externalId.equals(whe.externalId)) {
+                return false;
+            }
+            if ((whe.eventTypes == null) || whe.eventTypes.isEmpty()) {
+                return true; // event types not reported by the cloud
+            }
+            Set<String> registered = new TreeSet<>();
+            for (RachioApiWebHookEventType eventType : whe.eventTypes) {
+                registered.add(eventType.id);
+            }
+            return registered.equals(eventTypes);
+        }
+
+        /**
+         * @return true if the webhook was registered by this bridge (same url or externalId) or all webhooks of the
+         *         device should be replaced
+         */
+        boolean isOwned(RachioApiWebHookEntry whe) {
+            return clearAll || url.equals(whe.url) || externalId.equals(whe.externalId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RachioWebHookSpec)) {
+                return false;
+            }
+            RachioWebHookSpec other = (RachioWebHookSpec) o;
+            return url.equals(other.url) && externalId.equals(other.externalId)
+                    && eventTypes.equals(other.eventTypes) && (clearAll == other.clearAll);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() ^ externalId.hashCode() ^ eventTypes.hashCode();
+        }
+    }
+
+    private final RachioApi api;
+    private final Map<String, RachioWebHookSpec> desired = new HashMap<>(); // key=device id
+    private final Map<String, RachioWebHookSpec> registered = new HashMap<>(); // verified with the cloud
+    private final Object reconcileLock = new Object(); // one reconcile at a time, held during the api calls
+
+    public RachioWebHookReconciler(RachioApi api) {
+        this.api = api;
+    }
+
+    /**
+     * Set the desired registration of a device, the cloud is updated on the next reconcile
+     *
+     * @param deviceId Device id
+     * @param url Callback url
+     * @param externalId External id, used to map webhook events to the bridge
+     * @param clearAll true: delete all other webhooks of the device
+     * @param eventTypes Event type ids
+     */
+    public synchronized void setDesired(String deviceId, String url, String externalId, boolean clearAll,
+            String... eventTypes) {
+        desired.put(deviceId, new RachioWebHookSpec(url, externalId, clearAll, eventTypes));
+    }
+
+    /**
+     * Forget a device, e.g. it was removed from the account
+     *
+     * @param deviceId Device id
+     */
+    public synchronized void remove(String deviceId) {
+        desired.remove(deviceId);
+        registered.remove(deviceId);
+    }
+
+    /**
+     * Clear the cache, the next reconcile verifies the registrations with the cloud
+     */
+    public synchronized void invalidate() {
+        registered.clear();
+    }
+
+    /**
+     * @param deviceId Device id
+     * @return true if the desired webhook of the device is known to be registered
+     */
+    public synchronized boolean isInSync(String deviceId) {
+        RachioWebHookSpec spec = desired.get(deviceId);
+        return (spec != null) && spec.equals(registered.get(deviceId));
+    }
+
+    /**
+     * @return number of devices, which webhook is not verified yet
+     */
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (String deviceId : desired.keySet()) {
+            if (!isInSync(deviceId)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Bring the webhooks of a device in line with the desired registration
+     *
+     * @param deviceId Device id
+     * @return result of the last api call, null if the cache was in sync
+     * @throws RachioApiException Unable to read the webhook list or to register the webhook
+     */
+    public RachioApiResult reconcile(String deviceId) throws RachioApiException {
+        synchronized (reconcileLock) {
+            RachioWebHookSpec spec;
+            synchronized (this) {
+                spec = desired.get(deviceId);
+                if ((spec == null) || spec.equals(registered.get(deviceId))) {
+                    return null;
+                }
+                registered.remove(deviceId);
+            }
+
+            RachioApiResult result = sync(deviceId, spec);
+            synchronized (this) {
+                if (spec.equals(desired.get(deviceId))) { // not changed or removed in the meantime
+                    registered.put(deviceId, spec);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Issue the api calls to bring the registrations of the device in line with spec, no lock on the maps is held
+     */
+    private RachioApiResult sync(String deviceId, RachioWebHookSpec spec) throws RachioApiException {
+        RachioApiResult result = api.getWebHookList(deviceId);
+        @SuppressWarnings("unchecked")
+        List<RachioApiWebHookEntry> webhooks = (List<RachioApiWebHookEntry>) result.resultObject;
+        if (webhooks == null) {
+            webhooks = new ArrayList<>();
+        }
+        logger.debug("RachioWebHook: {} webhooks registered for device '{}'", webhooks.size(), deviceId);
+
+        RachioApiWebHookEntry current = null;
+        for (RachioApiWebHookEntry whe : webhooks) {
+            if ((current == null) && spec.matches(whe)) {
+                logger.debug("RachioWebHook: Keep webhook '{}', url='{}'", whe.id, whe.url);
+                current = whe;
+            } else if (spec.isOwned(whe)) {
+                logger.debug("RachioWebHook: Delete webhook '{}', url='{}', externalId='{}'", whe.id, whe.url,
+                        whe.externalId);
+                try {
+                    result = api.deleteWebHook(whe.id);
+                } catch (RachioApiException e) {
+                    logger.debug("RachioWebHook: Deleting webhook '{}' failed: {}", whe.id, e.getMessage());
+                }
+            }
+        }
+
+        if (current == null) {
+            logger.debug("RachioWebHook: Register webhook for device '{}', callback url = '{}'", deviceId, spec.url);
+            result = api.createWebHook(deviceId, spec.url, spec.externalId,
+                    spec.eventTypes.toArray(new String[spec.eventTypes.size()]));
+        }
+        return result;
+    }
+
+    /**
+     * Reconcile all devices in one pass, a failing device doesn't stop the pass. The pass ends early if the call budget
+     * for background requests is exhausted.
+     *
+     * @return result of the last api call, null if all devices were in sync
+     * @throws RachioApiException first error of the pass, after all devices were processed
+     */
+    public RachioApiResult reconcileAll() throws RachioApiException {
+        synchronized (reconcileLock) {
+            return reconcilePass();
+        }
+    }
+
+    private RachioApiResult reconcilePass() throws RachioApiException {
+        RachioApiResult last = null;
+        RachioApiException error = null;
+        int verified = 0;
+        List<String> deviceIds;
+        synchronized (this) {
+            deviceIds = new ArrayList<>(desired.keySet());
+        }
+        for (String deviceId : deviceIds) {
+            if (!isInSync(deviceId) && !api.isCallAllowed(RachioApiPriority.BACKGROUND)) {
+                // the remaining devices are picked up by the next pass
+                logger.debug("RachioWebHook: Call budget exhausted, {} device(s) pending", getPendingCount());
+                break;
+            }
+            try {
+                RachioApiResult result = reconcile(deviceId);
+                if (result != null) {
+                    last = result;
+                    verified++;
+                }
+            } catch (RachioApiException e) {
+                logger.debug("RachioWebHook: Unable to reconcile webhooks of device '{}': {}", deviceId,
+                        e.getMessage());
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        logger.debug("RachioWebHook: Webhooks reconciled, {} of {} devices verified with the cloud", verified,
+                deviceIds.size());
+        if (error != null) {
+            throw error;
+        }
+        return last;
+    }
+} // class
@@ -45,7 +45,7 @@ import com.google.gson.Gson;
 public class RachioWebHookServlet extends HttpServlet {
     private static final long serialVersionUID = -4654253998990066051L;
     private final Logger logger = LoggerFactory.getLogger(RachioWebHookServlet.class);
-    private final Gson gson = new Gson();
+    private final Gson gson = RachioJson.gson;
 
     private HttpService httpService;
     private RachioHandlerFactory rachioHandlerFactory;
@@ -16,6 +16,8 @@ import static org.openhab.binding.rachio.RachioBindingConstants.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.thing.ThingUID;
@@ -24,53 +26,60 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The {@link RachioZone} stores attributes received from the Rachio cloud api and represents a zone..
+ * The {@link RachioZone} stores attributes received from the Rachio cloud api and represents a zone. Only the
+ * identifying attributes are kept as fields (the zone number the zone was created with is part of the thing id), the
+ * current values are provided by the immutable snapshot returned by getState().
  *
  * @author Markus Michels (markus7017) - Initial contribution
  */
 
-public class RachioZone extends RachioCloudZone {
+public class RachioZone {
     private final Logger logger = LoggerFactory.getLogger(RachioZone.class);
-    protected ThingUID dev_uid;
-    protected ThingUID zone_uid;
-    protected RachioZoneHandler thingHandler;
-    protected String uniqueId = "";
 
-    // public String lastEvent = "";
-    protected int startRunTime = 0;
+    public final String id;
+    public final int zoneNumber;
+
+    protected volatile ThingUID dev_uid;
+    protected volatile ThingUID zone_uid;
+    protected volatile RachioZoneHandler thingHandler;
+    protected String uniqueId = "";
+    private final AtomicReference<RachioZoneState> state = new AtomicReference<>();
 
     /**
-     * Use reflection to shallow copy simple type fields with matching names from one object to another
+     * Create the zone from the cloud data
      *
-     * @param fromObj the object to copy from
-     * @param toObj the object to copy to
+     * @param zone Zone data received from the cloud
+     * @param uniqueId Thing id of the device
      */
     public RachioZone(RachioCloudZone zone, String uniqueId) {
-        try {
-            RachioApi.copyMatchingFields(zone, this);
-            // this.customSoil = zone.customSoil;
-            // this.customSlope = zone.customSlope;
-            // this.customCrop = zone.customCrop;
-            // this.customShade = zone.customShade;
-            // this.customNozzle = zone.customNozzle;
-
-            if (zone.imageUrl.substring(0, SERVLET_IMAGE_URL_BASE.length()).equalsIgnoreCase(SERVLET_IMAGE_URL_BASE)) {
-                // when trying to load the imageUrl Rachio doesn't add a ".png" and doesn't set the mime type. As a
-                // result the binding provides a servlet, which acts like a proxy. We redirect the load request to the
-                // local servlet. The serverlet loads the provided image and then writs it as binary data to the output
-                // stream with the correct mime type.
-                String uri = zone.imageUrl.substring(zone.imageUrl.lastIndexOf("/"));
-                if (!uri.equals("")) {
-                    this.imageUrl = SERVLET_IMAGE_PATH + uri;
-                    logger.trace("RachioZone: imageUrl rewritten to '{}' for zone '{}'", imageUrl, name);
-                }
-            }
+        id = zone.id;
+        zoneNumber = zone.zoneNumber;
+        this.uniqueId = uniqueId;
+        state.set(new RachioZoneState(zone, mapImageUrl(zone.imageUrl)));
+        logger.trace("RachioZone: Zone '{}' (number={}, id={}, enable={}) initialized.", zone.name, zone.zoneNumber,
+                zone.id, zone.enabled);
+    }
+
+    /**
+     * @return current snapshot of the zone attributes, never modified
+     */
+    public RachioZoneState getState() {
+        return state.get();
+    }
 
-            this.uniqueId = uniqueId;
-            logger.trace("RachioZone: Zone '{}' (number={}, id={}, enable={}) initialized.", zone.name, zone.zoneNumber,
-                    zone.id, zone.enabled);
-        } catch (Exception e) {
-            logger.warn("RachioZone: Unable to initialized: {}", e.getMessage());
+    /**
+     * Apply a change to the zone attributes, a concurrent change is retried on the updated snapshot
+     *
+     * @param delta Creates the new snapshot from the current one
+     * @return previous snapshot
+     */
+    private RachioZoneState updateState(UnaryOperator<RachioZoneState> delta) {
+        while (true) {
+            RachioZoneState current = state.get();
+            RachioZoneState next = delta.apply(current);
+            if ((next == current) || state.compareAndSet(current, next)) {
+                return current;
+            }
         }
     }
 
@@ -83,34 +92,65 @@ public class RachioZone extends RachioCloudZone {
     }
 
     public boolean compare(RachioZone czone) {
-        if ((czone == null) || (zoneNumber != czone.zoneNumber) || (enabled != czone.enabled)
-                || (availableWater != czone.availableWater) || (efficiency != czone.efficiency)
-                || (lastWateredDate != czone.lastWateredDate) || (depthOfWater != czone.depthOfWater)
-                || (runtime != czone.runtime)) {
+        if (czone == null) {
+            return false;
+        }
+        RachioZoneState a = getState();
+        RachioZoneState b = czone.getState();
+        if ((a.getZoneNumber() != b.getZoneNumber()) || (a.isEnabled() != b.isEnabled())
+                || (a.getAvailableWater() != b.getAvailableWater()) || (a.getEfficiency() != b.getEfficiency())
+                || (a.getLastWateredDate() != b.getLastWateredDate()) || (a.getDepthOfWater() != b.getDepthOfWater())
+                || (a.getRuntime() != b.getRuntime())) {
             return false;
         }
         return true;
     } // compare()
 
     public void update(RachioZone updatedZone) {
-        if ((updatedZone == null) || !id.equalsIgnoreCase(updatedZone.id)) {
+        if ((updatedZone == null) || (updatedZone == this) || !id.equalsIgnoreCase(updatedZone.id)) {
             return;
         }
-        zoneNumber = updatedZone.zoneNumber;
-        enabled = updatedZone.enabled;
-        availableWater = updatedZone.availableWater;
-        efficiency = updatedZone.efficiency;
-        depthOfWater = updatedZone.depthOfWater;
-        runtime = updatedZone.runtime;
-        lastWateredDate = updatedZone.lastWateredDate;
-        // customSoil.name = updatedZone.customSoil.name;
-        // customSlope.name = updatedZone.customSlope.name;
-        // customCrop.name = updatedZone.customCrop.name;
-        // customShade.name = updatedZone.customShade.name;
-        // customNozzle.name = updatedZone.customNozzle.name;
-        // customNozzle.inchesPerHour = updatedZone.customNozzle.inchesPerHour;
+        RachioZoneState updated = updatedZone.getState();
+        updateState(s -> s.withCloudData(updated));
+    } // update()
+
+    /**
+     * Patch the zone with the data from a refreshed cloud document
+     *
+     * @param dev Device the zone belongs to
+     * @param czone Zone data as received from the cloud
+     * @return changed fields, empty if nothing has changed
+     */
+    public RachioStateChange update(RachioDevice dev, RachioCloudZone czone) {
+        RachioZoneState current = getState();
+        if ((czone == null) || !id.equalsIgnoreCase(czone.id)) {
+            return RachioStateChange.diff(dev, this, current, current);
+        }
+        String newImageUrl = mapImageUrl(czone.imageUrl);
+        RachioZoneState old = updateState(s -> s.withCloudData(czone, newImageUrl));
+        return RachioStateChange.diff(dev, this, old, getState());
     } // update()
 
+    /**
+     * When trying to load the imageUrl Rachio doesn't add a ".png" and doesn't set the mime type. As a result the
+     * binding provides a servlet, which acts like a proxy. We redirect the load request to the local servlet. The
+     * serverlet loads the provided image and then writs it as binary data to the output stream with the correct mime
+     * type.
+     *
+     * @param cloudUrl imageUrl as received from the cloud
+     * @return url of the image servlet or cloudUrl if it doesn't point to the Rachio media server
+     */
+    private static String mapImageUrl(String cloudUrl) {
+        if ((cloudUrl != null) && (cloudUrl.length() >= SERVLET_IMAGE_URL_BASE.length()) && cloudUrl
+                .substring(0, SERVLET_IMAGE_URL_BASE.length()).equalsIgnoreCase(SERVLET_IMAGE_URL_BASE)) {
+            String uri = cloudUrl.substring(cloudUrl.lastIndexOf("/"));
+            if (!uri.equals("")) {
+                return SERVLET_IMAGE_PATH + uri;
+            }
+        }
+        return cloudUrl;
+    }
+
     public void setUID(ThingUID deviceUID, ThingUID zoneUID) {
         dev_uid = deviceUID;
         zone_uid = zoneUID;
@@ -131,13 +171,21 @@ public class RachioZone extends RachioCloudZone {
 
     public Map<String, String> fillProperties() {
         Map<String, String> properties = new HashMap<>();
-        properties.put(PROPERTY_NAME, name);
+        properties.put(PROPERTY_NAME, getState().getName());
         properties.put(PROPERTY_ZONE_ID, id);
         return properties;
     }
 
     public OnOffType getEnabled() {
-        return enabled ? OnOffType.ON : OnOffType.OFF;
+        return getState().isEnabled() ? OnOffType.ON : OnOffType.OFF;
+    }
+
+    public int getZoneNumber() {
+        return getState().getZoneNumber();
+    }
+
+    public String getName() {
+        return getState().getName();
     }
 
     // public String getNozzleName() {
@@ -153,11 +201,11 @@ public class RachioZone extends RachioCloudZone {
     //
 
     public void setStartRunTime(int runtime) {
-        startRunTime = runtime;
+        updateState(s -> s.withStartRunTime(runtime));
     }
 
     public int getStartRunTime() {
-        return startRunTime;
+        return getState().getStartRunTime();
     }
 
     // public void setEvent(RachioEvent event) {
@@ -169,6 +217,6 @@ public class RachioZone extends RachioCloudZone {
     // }
 
     public boolean isEnable() {
-        return enabled;
+        return getState().isEnabled();
     }
 } // class RachioZone
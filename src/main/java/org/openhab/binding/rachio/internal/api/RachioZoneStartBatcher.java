@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.openhab.binding.rachio.internal.api.RachioCommand.RachioMultiZoneCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link RachioZoneStartBatcher} collects the zone starts of a device, which arrive within a short window (e.g. a
+ * rule or scene switching on several zones), and sends them as one zone/start_multiple call. The zones run in the
+ * order the starts arrived, a single zone is started with zone/start. Every caller gets its own future, which is
+ * completed with the result of the shared api call.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioZoneStartBatcher {
+    private final Logger logger = LoggerFactory.getLogger(RachioZoneStartBatcher.class);
+
+    private final RachioApi api;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, RachioZoneBatch> pending = new HashMap<>(); // key=device id
+    private volatile int window = 0;
+
+    private static class RachioZoneBatch {
+        private final String deviceId;
+        private final Map<String, Integer> zones = new LinkedHashMap<>(); // zone id -> duration, in arrival order
+        private final List<CompletableFuture<RachioApiResult>> futures = new ArrayList<>();
+
+        RachioZoneBatch(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        void complete(RachioApiResult result, Throwable e) {
+            for (CompletableFuture<RachioApiResult> future : futures) {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param api Api used to start the zones
+     * @param scheduler Scheduler for the end of the batching window
+     */
+    public RachioZoneStartBatcher(RachioApi api, ScheduledExecutorService scheduler) {
+        this.api = api;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param window Batching window in ms, 0 disables batching
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(window, 0);
+    }
+
+    /**
+     * Start a zone, the call is delayed until the batching window of the device ends
+     *
+     * @param deviceId Device owning the zone, null if unknown (no batching)
+     * @param zoneId Zone to start
+     * @param duration Run time in seconds
+     * @return future completing with the api result or exceptionally with a RachioApiException
+     */
+    public CompletableFuture<RachioApiResult> startZone(String deviceId, String zoneId, int duration) {
+        int window = this.window;
+        if ((window == 0) || (deviceId == null) || (scheduler == null)) {
+            return api.runZoneAsync(deviceId, zoneId, duration);
+        }
+
+        CompletableFuture<RachioApiResult> future = new CompletableFuture<>();
+        synchronized (pending) {
+            RachioZoneBatch batch = pending.get(deviceId);
+            if (batch == null) {
+                RachioZoneBatch newBatch = new RachioZoneBatch(deviceId);
+                pending.put(deviceId, newBatch);
+                scheduler.schedule(() -> flush(newBatch), window, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.zones.put(zoneId, duration); // a repeated start keeps the position and updates the run time
+            batch.futures.add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Drop the pending zone starts of a device, e.g. on STOP. The callers' futures are cancelled.
+     *
+     * @param deviceId Device id
+     */
+    public void cancel(String deviceId) {
+        RachioZoneBatch batch;
+        synchronized (pending) {
+            batch = pending.remove(deviceId);
+        }
+        if (batch != null) {
+            logger.debug("RachioZoneStartBatcher: {} pending zone start(s) for device '{}' cancelled",
+                    batch.zones.size(), deviceId);
+            batch.complete(null, new CancellationException("Zone start cancelled"));
+        }
+    }
+
+    /**
+     * Drop all pending zone starts
+     */
+    public void shutdown() {
+        List<String> deviceIds;
+        synchronized (pending) {
+            deviceIds = new ArrayList<>(pending.keySet());
+        }
+        for (String deviceId : deviceIds) {
+            cancel(deviceId);
+        }
+    }
+
+    private void flush(RachioZoneBatch batch) {
+        synchronized (pending) {
+            if (!pending.remove(batch.deviceId, batch)) {
+                return; // cancelled
+            }
+        }
+
+        CompletableFuture<RachioApiResult> call;
+        if (batch.zones.size() == 1) {
+            Map.Entry<String, Integer> zone = batch.zones.entrySet().iterator().next();
+            call = api.runZoneAsync(batch.deviceId, zone.getKey(), zone.getValue());
+        } else {
+            RachioMultiZoneCommand command = new RachioMultiZoneCommand();
+            for (Map.Entry<String, Integer> zone : batch.zones.entrySet()) {
+                command.add(zone.getKey(), zone.getValue());
+            }
+            logger.debug("RachioZoneStartBatcher: {} zone starts for device '{}' merged into one call",
+                    batch.futures.size(), batch.deviceId);
+            call = api.runMultipleZonesAsync(batch.deviceId, command);
+        }
+        call.whenComplete((result, e) -> batch.complete(result, e));
+    }
+} // class
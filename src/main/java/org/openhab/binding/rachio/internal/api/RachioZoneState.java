@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+/**
+ * The {@link RachioZoneState} is an immutable snapshot of the changing attributes of a zone, see
+ * {@link RachioDeviceState}.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioZoneState {
+    private long generation = 0;
+
+    private int zoneNumber = 0;
+    private String name = "";
+    private boolean enabled = true;
+    private double availableWater = 0.0;
+    private double rootZoneDepth = 0.0;
+    private double managementAllowedDepletion = 0.0;
+    private double efficiency = 0.0;
+    private int yardAreaSquareFeet = 0;
+    private String imageUrl = "";
+    private long lastWateredDate = -1;
+    private boolean scheduleDataModified = false;
+    private int fixedRuntime = 0;
+    private double saturatedDepthOfWater = 0.0;
+    private double depthOfWater = 0.0;
+    private int maxRuntime = 0;
+    private int runtimeNoMultiplier = 0;
+    private int runtime = 0;
+
+    // runtime settings
+    private int startRunTime = 0;
+
+    /**
+     * Create the initial snapshot from the cloud data
+     *
+     * @param czone Zone data as received from the cloud
+     * @param imageUrl Image url (mapped to the image servlet)
+     */
+    RachioZoneState(RachioCloudZone czone, String imageUrl) {
+        setCloudData(czone, imageUrl);
+    }
+
+    private RachioZoneState(RachioZoneState s) {
+        generation = s.generation + 1;
+        zoneNumber = s.zoneNumber;
+        name = s.name;
+        enabled = s.enabled;
+        availableWater = s.availableWater;
+        rootZoneDepth = s.rootZoneDepth;
+        managementAllowedDepletion = s.managementAllowedDepletion;
+        efficiency = s.efficiency;
+        yardAreaSquareFeet = s.yardAreaSquareFeet;
+        imageUrl = s.imageUrl;
+        lastWateredDate = s.lastWateredDate;
+        scheduleDataModified = s.scheduleDataModified;
+        fixedRuntime = s.fixedRuntime;
+        saturatedDepthOfWater = s.saturatedDepthOfWater;
+        depthOfWater = s.depthOfWater;
+        maxRuntime = s.maxRuntime;
+        runtimeNoMultiplier = s.runtimeNoMultiplier;
+        runtime = s.runtime;
+        startRunTime = s.startRunTime;
+    }
+
+    private void setCloudData(RachioCloudZone czone, String imageUrl) {
+        zoneNumber = czone.zoneNumber;
+        name = czone.name;
+        enabled = czone.enabled;
+        availableWater = czone.availableWater;
+        rootZoneDepth = czone.rootZoneDepth;
+        managementAllowedDepletion = czone.managementAllowedDepletion;
+        efficiency = czone.efficiency;
+        yardAreaSquareFeet = czone.yardAreaSquareFeet;
+        this.imageUrl = imageUrl;
+        lastWateredDate = czone.lastWateredDate;
+        scheduleDataModified = czone.scheduleDataModified;
+        fixedRuntime = czone.fixedRuntime;
+        saturatedDepthOfWater = czone.saturatedDepthOfWater;
+        depthOfWater = czone.depthOfWater;
+        maxRuntime = czone.maxRuntime;
+        runtimeNoMultiplier = czone.runtimeNoMultiplier;
+        runtime = czone.runtime;
+    }
+
+    //
+    // ------ Deltas, each returns a new snapshot (or this one if nothing changed)
+    //
+
+    RachioZoneState withCloudData(RachioCloudZone czone, String imageUrl) {
+        RachioZoneState s = new RachioZoneState(this);
+        s.setCloudData(czone, imageUrl);
+        return s;
+    }
+
+    /**
+     * Take the cloud attributes from another snapshot, the runtime settings are kept
+     */
+    RachioZoneState withCloudData(RachioZoneState other) {
+        RachioZoneState s = new RachioZoneState(other);
+        s.generation = generation + 1;
+        s.startRunTime = startRunTime;
+        return s;
+    }
+
+    RachioZoneState withStartRunTime(int startRunTime) {
+        if (this.startRunTime == startRunTime) {
+            return this;
+        }
+        RachioZoneState s = new RachioZoneState(this);
+        s.startRunTime = startRunTime;
+        return s;
+    }
+
+    //
+    // ------ Getters
+    //
+
+    /**
+     * @return Snapshot number, incremented with every change of the zone
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getZoneNumber() {
+        return zoneNumber;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getAvailableWater() {
+        return availableWater;
+    }
+
+    public double getRootZoneDepth() {
+        return rootZoneDepth;
+    }
+
+    public double getManagementAllowedDepletion() {
+        return managementAllowedDepletion;
+    }
+
+    public double getEfficiency() {
+        return efficiency;
+    }
+
+    public int getYardAreaSquareFeet() {
+        return yardAreaSquareFeet;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public long getLastWateredDate() {
+        return lastWateredDate;
+    }
+
+    public boolean isScheduleDataModified() {
+        return scheduleDataModified;
+    }
+
+    public int getFixedRuntime() {
+        return fixedRuntime;
+    }
+
+    public double getSaturatedDepthOfWater() {
+        return saturatedDepthOfWater;
+    }
+
+    public double getDepthOfWater() {
+        return depthOfWater;
+    }
+
+    public int getMaxRuntime() {
+        return maxRuntime;
+    }
+
+    public int getRuntimeNoMultiplier() {
+        return runtimeNoMultiplier;
+    }
+
+    public int getRuntime() {
+        return runtime;
+    }
+
+    public int getStartRunTime() {
+        return startRunTime;
+    }
+} // class
@@ -127,10 +127,11 @@ public class RachioDiscoveryService extends AbstractDiscoveryService
             ThingUID devThingUID = new ThingUID(THING_TYPE_DEVICE, bridgeUID, dev.getThingID());
             dev.setUID(bridgeUID, devThingUID);
             if ((cloudHandler == null) || (cloudHandler.getThingByUID(devThingUID) == null)) {
-                logger.info("RachioDiscovery: New Rachio device discovered: '{}' (id {}), S/N={}, MAC={}", dev.name,
-                        dev.id, dev.serialNumber, dev.macAddress);
-                logger.debug("  latitude={}, longitude={}", dev.latitude, dev.longitude);
-                logger.info("   device status={}, paused/sleep={}, on={}", dev.status, dev.getSleepMode(),
+                logger.info("RachioDiscovery: New Rachio device discovered: '{}' (id {}), S/N={}, MAC={}",
+                        dev.getThingName(), dev.id, dev.getState().getSerialNumber(), dev.macAddress);
+                logger.debug("  latitude={}, longitude={}", dev.getState().getLatitude(),
+                        dev.getState().getLongitude());
+                logger.info("   device status={}, paused/sleep={}, on={}", dev.getStatus(), dev.getSleepMode(),
                         dev.getEnabled());
                 @SuppressWarnings({ "unchecked", "rawtypes" })
                 Map<String, Object> properties = (Map) dev.fillProperties();
@@ -139,9 +140,9 @@ public class RachioDiscoveryService extends AbstractDiscoveryService
                 thingDiscovered(discoveryResult);
             } // if (cloudHandler.getThingByUID(dev_thingUID) == null)
 
-            HashMap<String, RachioZone> zoneList = dev.getZones();
+            Map<String, RachioZone> zoneList = dev.getZones();
             logger.info("RachioDiscovery: Found {} zones for this device.", zoneList.size());
-            for (HashMap.Entry<String, RachioZone> ze : zoneList.entrySet()) {
+            for (Map.Entry<String, RachioZone> ze : zoneList.entrySet()) {
                 RachioZone zone = ze.getValue();
                 logger.debug("RachioDiscovery: Checking zone with ID '{}'", zone.id);
 
@@ -149,18 +150,19 @@ public class RachioDiscoveryService extends AbstractDiscoveryService
                 ThingUID zoneThingUID = new ThingUID(THING_TYPE_ZONE, bridgeUID, zone.getThingID());
                 zone.setUID(devThingUID, zoneThingUID);
                 if ((cloudHandler == null) || (cloudHandler.getThingByUID(zoneThingUID) == null)) {
-                    logger.info("RachioDiscovery: Zone#{} '{}' (id={}) added, enabled={}", zone.zoneNumber, zone.name,
-                            zone.id, zone.getEnabled());
+                    logger.info("RachioDiscovery: Zone#{} '{}' (id={}) added, enabled={}", zone.getZoneNumber(),
+                            zone.getName(), zone.id, zone.getEnabled());
 
                     if (zone.getEnabled() == OnOffType.ON) {
                         @SuppressWarnings({ "unchecked", "rawtypes" })
                         Map<String, Object> zproperties = (Map) zone.fillProperties();
                         DiscoveryResult zoneDiscoveryResult = DiscoveryResultBuilder.create(zoneThingUID)
                                 .withProperties(zproperties).withBridge(bridgeUID)
-                                .withLabel(dev.name + "[" + zone.zoneNumber + "]: " + zone.name).build();
+                                .withLabel(dev.getThingName() + "[" + zone.getZoneNumber() + "]: " + zone.getName())
+                                .build();
                         thingDiscovered(zoneDiscoveryResult);
                     } else {
-                        logger.info("RachioDiscovery: Zone#{} '{}' is disabled, skip thing creation", zone.name,
+                        logger.info("RachioDiscovery: Zone#{} '{}' is disabled, skip thing creation", zone.getName(),
                                 zone.id);
                     }
                 } // if (cloudHandler.getThingByUID(zoneThingUID) == null)
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioApiResult;
+import org.openhab.binding.rachio.internal.api.RachioApi.RachioRefreshResult;
+import org.openhab.binding.rachio.internal.api.RachioRateLimiter.RachioApiPriority;
+
+/**
+ * Runs {@link RachioApi} against the {@link RachioCloudSimulator}
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioApiSimulatorTest {
+    private static final int NUM_DEVICES = 2;
+    private static final int NUM_ZONES = 8;
+
+    private RachioCloudSimulator simulator;
+    private RachioApi api;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new RachioCloudSimulator();
+        simulator.start(0);
+        String apikey = simulator.addAccount(NUM_DEVICES, NUM_ZONES);
+        api = new RachioApi("");
+        api.setBaseUrl(simulator.getBaseUrl());
+        assertTrue(api.initialize(apikey, new ThingUID(THING_TYPE_CLOUD, "simulator")));
+    }
+
+    @After
+    public void tearDown() {
+        api.dispose();
+        simulator.stop();
+    }
+
+    @Test
+    public void initializeReadsAllDevicesAndZones() {
+        assertEquals(NUM_DEVICES, api.getDevices().size());
+        for (RachioDevice dev : api.getDevices().values()) {
+            assertEquals(NUM_ZONES, dev.getZones().size());
+            assertEquals(OnOffType.ON, dev.getEnabled());
+        }
+    }
+
+    @Test
+    public void refreshReportsChangedDevice() throws Exception {
+        RachioDevice dev = api.getDevices().values().iterator().next();
+        api.disableDevice(dev.id);
+
+        RachioRefreshResult changes = new RachioRefreshResult();
+        assertTrue(api.refreshDevice(dev.id, changes));
+        assertEquals(1, changes.updatedDevices.size());
+        assertTrue(changes.newZones.isEmpty());
+        assertTrue(changes.removedZones.isEmpty());
+        assertEquals(OnOffType.OFF, dev.getEnabled());
+
+        // nothing changed since the last refresh
+        changes = api.refreshDevices();
+        assertTrue(changes.isEmpty());
+        assertSame(dev, api.getDevices().get(dev.id));
+    }
+
+    @Test
+    public void unknownApikeyIsRejected() {
+        RachioApi other = new RachioApi("");
+        other.setBaseUrl(simulator.getBaseUrl());
+        try {
+            other.initialize("unknown", new ThingUID(THING_TYPE_CLOUD, "unknown"));
+            fail("RachioApiException expected");
+        } catch (RachioApiException e) {
+            assertTrue(e.getApiResult().isRejected());
+        } finally {
+            other.dispose();
+        }
+    }
+
+    @Test
+    public void commandSucceedsWhenResponseReachesBlockLimit() throws Exception {
+        RachioDevice dev = api.getDevices().values().iterator().next();
+        simulator.setRateLimit(RACHIO_RATE_LIMIT_BLOCK / 2);
+        RachioApiResult result = api.disableDevice(dev.id);
+        assertEquals(Integer.valueOf(RACHIO_RATE_LIMIT_BLOCK / 2 - 1), result.rateRemaining);
+
+        // the cloud executed the command, the next one is rejected without a request
+        long requests = simulator.getRequestCount();
+        assertFalse(api.isCallAllowed(RachioApiPriority.COMMAND));
+        try {
+            api.enableDevice(dev.id);
+            fail("RachioApiException expected");
+        } catch (RachioApiException e) {
+            // budget exhausted
+        }
+        assertEquals(requests, simulator.getRequestCount());
+    }
+
+    @Test
+    public void rateLimitExceededStopsFurtherCalls() throws Exception {
+        simulator.exhaustRateLimit();
+        long requests = simulator.getRequestCount();
+        try {
+            api.refreshDevices();
+            fail("RachioApiException expected");
+        } catch (RachioApiException e) {
+            assertEquals(Integer.valueOf(HTTP_TOO_MANY_REQUESTS), e.getApiResult().responseCode);
+        }
+        // no retry, the cloud answered
+        assertEquals(requests + 1, simulator.getRequestCount());
+        assertNull(api.getOpenCircuit());
+
+        // the budget was taken from the response headers, further calls are skipped without a request
+        assertFalse(api.isCallAllowed(RachioApiPriority.POLL));
+        assertFalse(api.isCallAllowed(RachioApiPriority.COMMAND));
+        try {
+            api.refreshDevices();
+            fail("RachioApiException expected");
+        } catch (RachioApiException e) {
+            // budget exhausted
+        }
+        assertEquals(requests + 1, simulator.getRequestCount());
+    }
+} // class
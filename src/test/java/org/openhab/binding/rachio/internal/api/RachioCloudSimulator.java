@@ -0,0 +1,759 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.rachio.internal.api;
+
+import static org.openhab.binding.rachio.RachioBindingConstants.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The {@link RachioCloudSimulator} is a stand-in for the Rachio cloud, which runs in-process on localhost. It serves
+ * the api endpoints used by the binding (person, device, zone and webhook) for generated accounts of configurable
+ * size, sends X-RateLimit-* headers like the cloud does and posts webhook events (zone started/stopped/completed, rain
+ * delay) to the registered callback urls, e.g. the binding's RachioWebHookServlet.
+ *
+ * Point the bridge to it by setting the thing parameter apiUrl to getBaseUrl(). The main() method starts a
+ * standalone simulator or runs a poll/command benchmark against it. The simulator is part of the test sources and not
+ * included in the binding.
+ *
+ * @author Markus Michels (markus7017) - Initial contribution
+ */
+public class RachioCloudSimulator {
+    public static final String SIMULATOR_API_PATH = "/1/public/";
+    public static final int SIMULATOR_RATE_LIMIT = 1700; // same as the cloud
+
+    private static final Logger logger = LoggerFactory.getLogger(RachioCloudSimulator.class);
+    private static final Gson gson = RachioJson.gson;
+
+    static class SimPerson {
+        long createDate = System.currentTimeMillis();
+        String id = UUID.randomUUID().toString();
+        String username = "";
+        String fullName = "";
+        String email = "";
+        List<RachioCloudDevice> devices = new CopyOnWriteArrayList<>();
+        boolean deleted = false;
+    }
+
+    static class SimWebHook {
+        long createDate = System.currentTimeMillis();
+        long lastUpdateDate = createDate;
+        String id = UUID.randomUUID().toString();
+        String url = "";
+        String externalId = "";
+        List<SimEventType> eventTypes = new ArrayList<>();
+    }
+
+    static class SimEventType {
+        String id = "";
+    }
+
+    static class SimAccount {
+        final String apikey;
+        final SimPerson person = new SimPerson();
+        int rateRemaining = SIMULATOR_RATE_LIMIT;
+        long rateReset = 0;
+
+        SimAccount(String apikey) {
+            this.apikey = apikey;
+        }
+    }
+
+    static class SimResponse {
+        final int code;
+        final String body;
+
+        SimResponse(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    private final Map<String, SimAccount> accounts = new ConcurrentHashMap<>(); // by apikey
+    private final Map<String, RachioCloudDevice> devices = new ConcurrentHashMap<>(); // by deviceId
+    private final Map<String, SimAccount> deviceOwner = new ConcurrentHashMap<>(); // deviceId -> account
+    private final Map<String, RachioCloudDevice> zoneDevice = new ConcurrentHashMap<>(); // zoneId -> device
+    private final Map<String, List<SimWebHook>> webhooks = new ConcurrentHashMap<>(); // deviceId -> webhooks
+    private final Map<String, RachioCloudZone> runningZones = new ConcurrentHashMap<>(); // deviceId -> zone
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private volatile int latency = 0; // ms added to each response
+    private volatile double errorRate = 0.0; // share of requests answered with 503
+    private volatile int rateLimit = SIMULATOR_RATE_LIMIT;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionPool;
+    private ScheduledExecutorService eventScheduler;
+
+    /**
+     * Start listening on the loopback interface
+     *
+     * @param port Port number, 0=any free port
+     * @throws IOException
+     */
+    public synchronized void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 200, InetAddress.getLoopbackAddress());
+        connectionPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "rachio-simulator-connection");
+            t.setDaemon(true);
+            return t;
+        });
+        eventScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rachio-simulator-events");
+            t.setDaemon(true);
+            return t;
+        });
+        connectionPool.execute(this::acceptConnections);
+        logger.info("RachioSimulator: Listening on {}", getBaseUrl());
+    }
+
+    public synchronized void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        if (connectionPool != null) {
+            connectionPool.shutdownNow();
+        }
+        if (eventScheduler != null) {
+            eventScheduler.shutdownNow();
+        }
+        logger.info("RachioSimulator: Stopped after {} requests, {} events", requests.get(), events.get());
+    }
+
+    /**
+     * @return base URL to be used as apiUrl in the bridge configuration
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + SIMULATOR_API_PATH;
+    }
+
+    /**
+     * Generate an account with the given number of controllers
+     *
+     * @param numDevices Number of controllers
+     * @param numZones Number of zones per controller (e.g. 8 or 16)
+     * @return apikey of the new account
+     */
+    public String addAccount(int numDevices, int numZones) {
+        return addAccount(UUID.randomUUID().toString(), numDevices, numZones);
+    }
+
+    /**
+     * Generate an account with the given apikey, e.g. the one configured for the bridge
+     *
+     * @param apikey Apikey of the account
+     * @param numDevices Number of controllers
+     * @param numZones Number of zones per controller (e.g. 8 or 16)
+     * @return apikey of the new account
+     */
+    public String addAccount(String apikey, int numDevices, int numZones) {
+        SimAccount account = new SimAccount(apikey);
+        account.person.username = "sim" + accounts.size();
+        account.person.fullName = "Simulated Account " + accounts.size();
+        account.person.email = account.person.username + "@localhost";
+        for (int d = 1; d <= numDevices; d++) {
+            RachioCloudDevice dev = new RachioCloudDevice();
+            dev.createDate = System.currentTimeMillis();
+            dev.id = UUID.randomUUID().toString();
+            dev.status = "ONLINE";
+            dev.name = "Simulated Controller " + d;
+            dev.serialNumber = String.format("SIM%06d", devices.size() + 1);
+            dev.macAddress = String.format("0000%08X", devices.size() + 1);
+            dev.model = "GENERATION2_" + numZones + "ZONE";
+            dev.scheduleModeType = "MANUAL";
+            dev.latitude = 26.9;
+            dev.longitude = -82.3;
+            dev.on = true;
+            for (int z = 1; z <= numZones; z++) {
+                RachioCloudZone zone = new RachioCloudZone();
+                zone.id = UUID.randomUUID().toString();
+                zone.zoneNumber = z;
+                zone.name = "Zone " + z;
+                zone.enabled = true;
+                zone.maxRuntime = 10800;
+                zone.runtime = 600;
+                zone.imageUrl = SERVLET_IMAGE_URL_BASE + zone.id;
+                dev.zones.add(zone);
+                zoneDevice.put(zone.id, dev);
+            }
+            devices.put(dev.id, dev);
+            deviceOwner.put(dev.id, account);
+            account.person.devices.add(dev);
+        }
+        accounts.put(account.apikey, account);
+        return account.apikey;
+    }
+
+    public void setLatency(int latencyMs) {
+        latency = latencyMs;
+    }
+
+    public void setErrorRate(double rate) {
+        errorRate = rate;
+    }
+
+    public void setRateLimit(int limit) {
+        rateLimit = limit;
+        for (SimAccount account : accounts.values()) {
+            synchronized (account) {
+                account.rateRemaining = limit;
+            }
+        }
+    }
+
+    /**
+     * Use up the remaining calls of all accounts, e.g. like another client sharing the apikey. Further requests are
+     * answered with http 429 until the daily reset.
+     */
+    public void exhaustRateLimit() {
+        for (SimAccount account : accounts.values()) {
+            synchronized (account) {
+                account.rateRemaining = 0;
+            }
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getEventCount() {
+        return events.get();
+    }
+
+    //
+    // ------ HTTP handling
+    //
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionPool.execute(() -> serveConnection(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.debug("RachioSimulator: Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serve HTTP/1.1 requests on the connection until the client closes it (keep-alive)
+     */
+    private void serveConnection(Socket socket) {
+        try (Socket s = socket;
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream()) {
+            s.setSoTimeout(30 * 1000);
+            s.setTcpNoDelay(true);
+            while (true) {
+                String requestLine = readLine(in);
+                if ((requestLine == null) || requestLine.isEmpty()) {
+                    return;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while (((line = readLine(in)) != null) && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                    }
+                }
+                int length = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length"))
+                        : 0;
+                byte[] body = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(body, read, length - read);
+                    if (n < 0) {
+                        return;
+                    }
+                    read += n;
+                }
+
+                String[] parts = requestLine.split(" ");
+                String method = parts[0];
+                String path = parts.length > 1 ? parts[1] : "/";
+                boolean close = "close".equalsIgnoreCase(headers.get("connection"));
+                writeResponse(out, handleRequest(method, path, headers, new String(body, StandardCharsets.UTF_8)),
+                        headers, close);
+                if (close) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException | SocketException e) {
+            // idle connection closed
+        } catch (IOException | RuntimeException e) {
+            logger.debug("RachioSimulator: Connection failed: {}", e.toString());
+        }
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString(StandardCharsets.ISO_8859_1.name()).trim();
+            }
+            line.write(c);
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.ISO_8859_1.name()) : null;
+    }
+
+    private void writeResponse(OutputStream out, SimResponse response, Map<String, String> requestHeaders,
+            boolean close) throws IOException {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(response.code < 300 ? " OK" : " Error").append("\r\n");
+        head.append("Content-Type: application/json;charset=utf-8\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: ").append(close ? "close" : "keep-alive").append("\r\n");
+        SimAccount account = getAccount(requestHeaders);
+        if (account != null) {
+            synchronized (account) {
+                head.append(RACHIO_JSON_RATE_LIMIT).append(": ").append(rateLimit).append("\r\n");
+                head.append(RACHIO_JSON_RATE_REMAINING).append(": ").append(Math.max(account.rateRemaining, 0))
+                        .append("\r\n");
+                head.append(RACHIO_JSON_RATE_RESET).append(": ").append(Instant.ofEpochMilli(account.rateReset))
+                        .append("\r\n");
+            }
+        }
+        head.append("\r\n");
+        // single write, otherwise Nagle + delayed ACK add ~40ms to each keep-alive response
+        ByteArrayOutputStream data = new ByteArrayOutputStream(head.length() + body.length);
+        data.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        data.write(body);
+        data.writeTo(out);
+        out.flush();
+    }
+
+    private SimAccount getAccount(Map<String, String> headers) {
+        String auth = headers.get("authorization");
+        return (auth != null) && auth.startsWith("Bearer ") ? accounts.get(auth.substring(7).trim()) : null;
+    }
+
+    /**
+     * Check the account and the daily rate limit (reset at midnight UTC)
+     */
+    private boolean consumeCall(SimAccount account) {
+        synchronized (account) {
+            long now = System.currentTimeMillis();
+            if (now >= account.rateReset) {
+                account.rateRemaining = rateLimit;
+                LocalDate today = Instant.ofEpochMilli(now).atZone(ZoneOffset.UTC).toLocalDate();
+                account.rateReset = today.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            if (account.rateRemaining <= 0) {
+                return false;
+            }
+            account.rateRemaining--;
+            return true;
+        }
+    }
+
+    SimResponse handleRequest(String method, String path, Map<String, String> headers, String body) {
+        requests.incrementAndGet();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        SimAccount account = getAccount(headers);
+        if (account == null) {
+            return new SimResponse(HttpURLConnection.HTTP_UNAUTHORIZED, "{\"error\":\"invalid token\"}");
+        }
+        if (!consumeCall(account)) {
+            return new SimResponse(HTTP_TOO_MANY_REQUESTS, "{\"error\":\"rate limit exceeded\"}");
+        }
+        if ((errorRate > 0) && (Math.random() < errorRate)) {
+            return new SimResponse(HttpURLConnection.HTTP_UNAVAILABLE, "{\"error\":\"simulated failure\"}");
+        }
+        if (!path.startsWith(SIMULATOR_API_PATH)) {
+            return notFound(path);
+        }
+
+        List<String> p = Arrays.asList(path.substring(SIMULATOR_API_PATH.length()).split("\\?")[0].split("/"));
+        try {
+            switch (method) {
+                case HTTP_METHOD_GET:
+                    return handleGet(account, p);
+                case HTTP_METHOD_PUT:
+                    return handlePut(account, p, gson.fromJson(body, JsonObject.class));
+                case HTTP_METHOD_POST:
+                    return handlePost(account, p, gson.fromJson(body, JsonObject.class));
+                case HTTP_METHOD_DELETE:
+                    return handleDelete(account, p);
+                default:
+                    return notFound(path);
+            }
+        } catch (RuntimeException e) {
+            return new SimResponse(HttpURLConnection.HTTP_BAD_REQUEST, "{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    private SimResponse handleGet(SimAccount account, List<String> p) {
+        if ((p.size() == 2) && p.get(0).equals("person") && p.get(1).equals("info")) {
+            return ok("{\"id\":\"" + account.person.id + "\"}");
+        }
+        if ((p.size() == 2) && p.get(0).equals("person")) {
+            return p.get(1).equals(account.person.id) ? ok(gson.toJson(account.person)) : forbidden();
+        }
+        if ((p.size() == 2) && p.get(0).equals("device")) {
+            RachioCloudDevice dev = getDevice(account, p.get(1));
+            return dev != null ? ok(toJson(dev)) : forbidden();
+        }
+        if ((p.size() == 3) && p.get(0).equals("notification") && p.get(2).equals("webhook")) {
+            return getDevice(account, p.get(1)) != null ? ok(gson.toJson(getWebHooks(p.get(1)))) : forbidden();
+        }
+        return notFound(String.join("/", p));
+    }
+
+    private SimResponse handlePut(SimAccount account, List<String> p, JsonObject data) {
+        String cmd = String.join("/", p);
+        if (cmd.equals(APIURL_ZONE_PUT_START)) {
+            startZone(account, getString(data, "id"), getInt(data, "duration"));
+            return noContent();
+        }
+        if (cmd.equals(APIURL_ZONE_PUT_MULTIPLE_START)) {
+            // zones run one after the other, sorted by sortOrder
+            long delay = 0;
+            List<JsonObject> zones = new ArrayList<>();
+            for (JsonElement e : data.getAsJsonArray("zones")) {
+                zones.add(e.getAsJsonObject());
+            }
+            zones.sort((z1, z2) -> Integer.compare(getInt(z1, "sortOrder"), getInt(z2, "sortOrder")));
+            for (JsonObject z : zones) {
+                String zoneId = getString(z, "id");
+                int duration = getInt(z, "duration");
+                eventScheduler.schedule(() -> startZone(account, zoneId, duration), delay, TimeUnit.SECONDS);
+                delay += duration;
+            }
+            return noContent();
+        }
+
+        RachioCloudDevice dev = getDevice(account, getString(data, "id"));
+        if (dev == null) {
+            return forbidden();
+        }
+        synchronized (dev) {
+            if (cmd.equals(APIURL_DEV_PUT_ON)) {
+                dev.on = true;
+            } else if (cmd.equals(APIURL_DEV_PUT_OFF)) {
+                dev.on = false;
+            } else if (cmd.equals(APIURL_DEV_PUT_STOP)) {
+                stopZones(dev, "ZONE_STOPPED");
+            } else if (cmd.equals(APIURL_DEV_PUT_RAIN_DELAY)) {
+                int duration = getInt(data, "duration");
+                dev.rainDelayExpirationDate = duration > 0 ? System.currentTimeMillis() + duration * 1000L : 0;
+                sendEvent(dev, null, "DEVICE_STATUS", duration > 0 ? "RAIN_DELAY_ON" : "RAIN_DELAY_OFF", 0);
+            } else {
+                return notFound(cmd);
+            }
+        }
+        return noContent();
+    }
+
+    private SimResponse handlePost(SimAccount account, List<String> p, JsonObject data) {
+        if (!String.join("/", p).equals(APIURL_DEV_POST_WEBHOOK)) {
+            return notFound(String.join("/", p));
+        }
+        String deviceId = getString(data.getAsJsonObject("device"), "id");
+        if (getDevice(account, deviceId) == null) {
+            return forbidden();
+        }
+        SimWebHook webhook = new SimWebHook();
+        webhook.url = getString(data, "url");
+        webhook.externalId = getString(data, "externalId");
+        if (data.has("eventTypes")) {
+            for (JsonElement e : data.getAsJsonArray("eventTypes")) {
+                SimEventType eventType = new SimEventType();
+                eventType.id = getString(e.getAsJsonObject(), "id");
+                webhook.eventTypes.add(eventType);
+            }
+        }
+        getWebHooks(deviceId).add(webhook);
+        return ok(gson.toJson(webhook));
+    }
+
+    private SimResponse handleDelete(SimAccount account, List<String> p) {
+        if ((p.size() == 3) && (p.get(0) + "/" + p.get(1)).equals(APIURL_DEV_DELETE_WEBHOOK)) {
+            for (Map.Entry<String, List<SimWebHook>> e : webhooks.entrySet()) {
+                if (getDevice(account, e.getKey()) != null && e.getValue().removeIf(w -> w.id.equals(p.get(2)))) {
+                    return noContent();
+                }
+            }
+        }
+        return notFound(String.join("/", p));
+    }
+
+    //
+    // ------ Simulated controller behavior
+    //
+
+    private void startZone(SimAccount account, String zoneId, int duration) {
+        RachioCloudDevice dev = zoneDevice.get(zoneId);
+        if ((dev == null) || (deviceOwner.get(dev.id) != account)) {
+            return;
+        }
+        synchronized (dev) {
+            stopZones(dev, "ZONE_STOPPED"); // a controller runs only one zone at a time
+            for (RachioCloudZone zone : dev.zones) {
+                if (zone.id.equals(zoneId)) {
+                    long started = System.currentTimeMillis();
+                    zone.lastWateredDate = started;
+                    runningZones.put(dev.id, zone);
+                    sendEvent(dev, zone, "ZONE_STATUS", "ZONE_STARTED", duration);
+                    eventScheduler.schedule(() -> completeZone(dev, zone, started), duration, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    private void completeZone(RachioCloudDevice dev, RachioCloudZone zone, long started) {
+        synchronized (dev) {
+            if ((runningZones.get(dev.id) == zone) && (zone.lastWateredDate == started)) {
+                runningZones.remove(dev.id);
+                sendEvent(dev, zone, "ZONE_STATUS", "ZONE_COMPLETED",
+                        (int) ((System.currentTimeMillis() - started) / 1000));
+            }
+        }
+    }
+
+    private void stopZones(RachioCloudDevice dev, String subType) {
+        RachioCloudZone zone = runningZones.remove(dev.id);
+        if (zone != null) {
+            sendEvent(dev, zone, "ZONE_STATUS", subType,
+                    (int) ((System.currentTimeMillis() - zone.lastWateredDate) / 1000));
+        }
+    }
+
+    /**
+     * Post an event to all webhooks registered for the device, the JSON format follows the v3 events of the cloud
+     */
+    private void sendEvent(RachioCloudDevice dev, RachioCloudZone zone, String type, String subType, int duration) {
+        List<SimWebHook> hooks = webhooks.get(dev.id);
+        if ((hooks == null) || hooks.isEmpty()) {
+            return;
+        }
+        JsonObject event = new JsonObject();
+        event.addProperty("id", UUID.randomUUID().toString());
+        event.addProperty("deviceId", dev.id);
+        event.addProperty("category", "DEVICE");
+        event.addProperty("type", type);
+        event.addProperty("subType", subType);
+        event.addProperty("eventDate", System.currentTimeMillis());
+        event.addProperty("timestamp", Instant.now().toString());
+        event.addProperty("summary", subType + " on " + dev.name);
+        if (zone != null) {
+            JsonObject status = new JsonObject();
+            status.addProperty("state", subType.replace("ZONE_", ""));
+            status.addProperty("zoneNumber", zone.zoneNumber);
+            status.addProperty("duration", duration);
+            status.addProperty("startTime", Instant.ofEpochMilli(zone.lastWateredDate).toString());
+            event.addProperty("zoneId", zone.id);
+            event.addProperty("zoneName", zone.name);
+            event.addProperty("zoneNumber", zone.zoneNumber);
+            event.addProperty("duration", duration);
+            event.add("zoneRunStatus", status);
+        }
+        for (SimWebHook hook : hooks) {
+            event.addProperty("externalId", hook.externalId);
+            String json = gson.toJson(event);
+            eventScheduler.execute(() -> postEvent(hook.url, json));
+        }
+    }
+
+    private void postEvent(String url, String json) {
+        HttpURLConnection request = null;
+        try {
+            request = (HttpURLConnection) new URL(url).openConnection();
+            request.setRequestMethod(HTTP_METHOD_POST);
+            request.setRequestProperty("Content-Type", SERVLET_WEBHOOK_APPLICATION_JSON);
+            request.setConnectTimeout(5000);
+            request.setReadTimeout(5000);
+            request.setDoOutput(true);
+            try (OutputStream out = request.getOutputStream()) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            int code = request.getResponseCode();
+            RachioHttpPool.drain(request.getInputStream());
+            events.incrementAndGet();
+            logger.trace("RachioSimulator: Event posted to {}, http code={}", url, code);
+        } catch (IOException e) {
+            logger.debug("RachioSimulator: Unable to post event to {}: {}", url, e.getMessage());
+            if (request != null) {
+                RachioHttpPool.drain(request.getErrorStream());
+            }
+        }
+    }
+
+    //
+    // ------ Helpers
+    //
+
+    private RachioCloudDevice getDevice(SimAccount account, String deviceId) {
+        return (deviceId != null) && (deviceOwner.get(deviceId) == account) ? devices.get(deviceId) : null;
+    }
+
+    private List<SimWebHook> getWebHooks(String deviceId) {
+        return webhooks.computeIfAbsent(deviceId, k -> new CopyOnWriteArrayList<>());
+    }
+
+    private String toJson(RachioCloudDevice dev) {
+        synchronized (dev) {
+            return gson.toJson(dev);
+        }
+    }
+
+    private static String getString(JsonObject data, String name) {
+        return (data != null) && data.has(name) ? data.get(name).getAsString() : null;
+    }
+
+    private static int getInt(JsonObject data, String name) {
+        return (data != null) && data.has(name) ? data.get(name).getAsInt() : 0;
+    }
+
+    private static SimResponse ok(String json) {
+        return new SimResponse(HttpURLConnection.HTTP_OK, json);
+    }
+
+    private static SimResponse noContent() {
+        return new SimResponse(HttpURLConnection.HTTP_NO_CONTENT, "");
+    }
+
+    private static SimResponse forbidden() {
+        return new SimResponse(HttpURLConnection.HTTP_FORBIDDEN, "{\"error\":\"not authorized\"}");
+    }
+
+    private static SimResponse notFound(String path) {
+        return new SimResponse(HttpURLConnection.HTTP_NOT_FOUND, "{\"error\":\"unknown resource " + path + "\"}");
+    }
+
+    //
+    // ------ Standalone simulator / benchmark
+    //
+
+    /**
+     * Start a simulator or run a benchmark against it
+     *
+     * Options: -port n (default: any), -apikey key (default: generated), -devices n (default: 1), -zones n (default:
+     * 8), -latency ms, -errors rate, -bench rounds: run the given number of poll and command rounds through RachioApi
+     * and log the latencies
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        int devices = Integer.parseInt(options.getOrDefault("devices", "1"));
+        int zones = Integer.parseInt(options.getOrDefault("zones", "8"));
+        int rounds = Integer.parseInt(options.getOrDefault("bench", "0"));
+
+        RachioCloudSimulator simulator = new RachioCloudSimulator();
+        simulator.setLatency(Integer.parseInt(options.getOrDefault("latency", "0")));
+        simulator.setErrorRate(Double.parseDouble(options.getOrDefault("errors", "0")));
+        simulator.start(Integer.parseInt(options.getOrDefault("port", "0")));
+        String apikey = simulator.addAccount(options.getOrDefault("apikey", UUID.randomUUID().toString()), devices,
+                zones);
+        logger.info("RachioSimulator: apiUrl={}, {} controller(s) with {} zones", simulator.getBaseUrl(), devices,
+                zones);
+        if (rounds == 0) {
+            Thread.currentThread().join(); // run until killed
+            return;
+        }
+
+        simulator.setRateLimit(Integer.MAX_VALUE);
+        RachioApi api = new RachioApi("");
+        api.setBaseUrl(simulator.getBaseUrl());
+        long start = System.nanoTime();
+        api.initialize(apikey, new ThingUID(THING_TYPE_CLOUD, "simulator"));
+        logger.info("RachioSimulator: initialize: {}ms", String.format("%.1f", (System.nanoTime() - start) / 1e6));
+
+        List<Long> polls = new ArrayList<>();
+        List<Long> commands = new ArrayList<>();
+        for (int r = 0; r < rounds; r++) {
+            start = System.nanoTime();
+            api.refreshDevices();
+            polls.add(System.nanoTime() - start);
+            for (RachioDevice dev : api.getDevices().values()) {
+                RachioZone zone = dev.getZoneByNumber(1 + r % zones);
+                start = System.nanoTime();
+                api.runZone(zone.id, 60);
+                commands.add(System.nanoTime() - start);
+            }
+        }
+        printStats("poll (full refresh)", polls);
+        printStats("command (start zone)", commands);
+        logger.info("RachioSimulator: {} requests served", simulator.getRequestCount());
+        api.dispose();
+        simulator.stop();
+    }
+
+    private static void printStats(String name, List<Long> samples) {
+        Collections.sort(samples);
+        long total = 0;
+        for (long s : samples) {
+            total += s;
+        }
+        double seconds = total / 1e9;
+        logger.info("RachioSimulator: {}", String.format(
+                "%s: n=%d, avg=%.2fms, p50=%.2fms, p95=%.2fms, max=%.2fms, %.1f/s", name, samples.size(),
+                total / 1e6 / samples.size(), samples.get(samples.size() / 2) / 1e6,
+                samples.get((int) (samples.size() * 0.95)) / 1e6, samples.get(samples.size() - 1) / 1e6,
+                samples.size() / seconds));
+    }
+} // class